@@ -0,0 +1,82 @@
+package com.neway6655.cache;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AdaptiveConcurrencyLimiter limits how many loadings may hit the backend service concurrently, the limit adapts to the
+ * observed loading latency by AIMD (additive increase, multiplicative decrease): every loading finished within the
+ * latency threshold increases the limit by 1/limit, i.e. about 1 per round of loadings, while every slow or failed
+ * loading cuts the limit by {@link #BACKOFF_RATIO}. So the limit keeps close to the concurrency the backend handles
+ * without slowing down, within [minLimit, maxLimit].
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	private static final double BACKOFF_RATIO = 0.9;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final long latencyThresholdInMillis;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private volatile double limit;
+
+	public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit, long latencyThreshold, TimeUnit timeUnit) {
+		Assert.isTrue(minLimit > 0, "Min limit must be a positive number.");
+		Assert.isTrue(maxLimit >= minLimit, "Max limit must not be smaller than min limit.");
+		Assert.isTrue(latencyThreshold > 0, "Latency threshold must be a positive number.");
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThresholdInMillis = timeUnit.toMillis(latencyThreshold);
+		this.limit = maxLimit;
+	}
+
+	/**
+	 * Tries to start a loading, every acquired permit must be released by {@link #release(long, boolean)}.
+	 *
+	 * @return false if the concurrent loadings have reached the limit.
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= (int) limit) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	public void release(long latencyInMillis, boolean success) {
+		inFlight.decrementAndGet();
+
+		synchronized (this) {
+			if (success && latencyInMillis <= latencyThresholdInMillis) {
+				limit = Math.min(maxLimit, limit + 1.0 / limit);
+			} else {
+				limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+			}
+		}
+	}
+
+	/**
+	 * Releases an acquired permit which did not start a loading, the limit is not adjusted.
+	 */
+	public void cancel() {
+		inFlight.decrementAndGet();
+	}
+
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+}
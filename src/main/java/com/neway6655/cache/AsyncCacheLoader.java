@@ -0,0 +1,25 @@
+package com.neway6655.cache;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * CacheLoader which loads without blocking, e.g. by an async http or database client, so missed keys are loaded
+ * without holding a refresh thread while waiting for the backend service. See
+ * {@link RedisLoadingCache#loadAsync(String)}.
+ */
+public abstract class AsyncCacheLoader<T extends CachedObject> extends CacheLoader<T> {
+
+    /**
+     * Loads the value of the key, the future completes with null if the key is absent.
+     */
+    public abstract ListenableFuture<T> loadAsync(String key);
+
+    /**
+     * Waits for {@link #loadAsync(String)}, it is used when the load lease is enabled.
+     */
+    @Override
+    public T load(String key) {
+        return Futures.getUnchecked(loadAsync(key));
+    }
+}
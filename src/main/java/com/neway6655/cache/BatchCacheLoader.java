@@ -0,0 +1,25 @@
+package com.neway6655.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * CacheLoader which is able to load many keys in one backend call, it is used by
+ * {@link RedisLoadingCache#getAll(Collection)} to load all missed keys at once.
+ */
+public abstract class BatchCacheLoader<T extends CachedObject> extends CacheLoader<T> {
+
+    /**
+     * Loads values of the given keys, keys which could not be found should be absent from the returned map.
+     */
+    public abstract Map<String, T> loadAll(Collection<String> keys);
+
+    /**
+     * Loads a single key as a batch of one, override it if the backend service has a cheaper single key call.
+     */
+    @Override
+    public T load(String key) {
+        return loadAll(Collections.singletonList(key)).get(key);
+    }
+}
@@ -0,0 +1,19 @@
+package com.neway6655.cache;
+
+import java.io.IOException;
+
+/**
+ * CacheCodec converts cached objects to the bytes stored in redis and back.
+ *
+ * Implementations must be thread safe, one codec instance may be shared by many caches.
+ */
+public interface CacheCodec {
+
+    byte[] encode(Object object) throws IOException;
+
+    /**
+     * Decodes an object from length bytes starting at offset, so the payload does not need to be copied out of a larger
+     * buffer.
+     */
+    <T> T decode(byte[] bytes, int offset, int length, Class<T> type) throws IOException;
+}
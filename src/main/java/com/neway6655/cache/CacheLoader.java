@@ -1,9 +1,14 @@
 package com.neway6655.cache;
 
 /**
+ * Loads the value of a key from the backend service when it is missed or being refreshed.
+ *
  * Created by neway on 15/11/2015.
  */
 public abstract class CacheLoader<T extends CachedObject> {
 
-    public abstract T load();
+    /**
+     * Loads the value of the key, null if the key is absent.
+     */
+    public abstract T load(String key);
 }
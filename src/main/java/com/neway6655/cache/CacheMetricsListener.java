@@ -0,0 +1,57 @@
+package com.neway6655.cache;
+
+/**
+ * CacheMetricsListener is notified of what happens inside a {@link RedisLoadingCache}, to feed a metrics system. It is
+ * called on the caller's and the refresh threads, so implementations must be thread-safe and cheap, they must not block
+ * or throw.
+ *
+ * Latencies are in nanoseconds. Extend {@link NoopCacheMetricsListener} to listen to a few events only.
+ */
+public interface CacheMetricsListener {
+
+	/**
+	 * A hit in the near cache or the hot key tier.
+	 */
+	void onNearCacheHit();
+
+	void onRedisHit();
+
+	/**
+	 * A key is missed in redis, or its value could not be decoded.
+	 */
+	void onMiss();
+
+	/**
+	 * A key known to be absent, by a tombstone or the known key filter, is answered without loading.
+	 */
+	void onNegativeHit();
+
+	/**
+	 * @param latencyInNanos 0 if the call was skipped since redis is known to be unavailable.
+	 */
+	void onRedisCall(long latencyInNanos, boolean success);
+
+	void onDecode(long latencyInNanos, boolean success);
+
+	void onEncode(long latencyInNanos, boolean success);
+
+	/**
+	 * A loading of one key, or a batch loading of many keys, by the cache loader.
+	 */
+	void onLoad(long latencyInNanos, boolean success);
+
+	/**
+	 * A loading is refused by the concurrency limiter or the circuit breaker, or rejected by the refresh executor.
+	 */
+	void onLoadRejected();
+
+	/**
+	 * A cached key starts being refreshed in background.
+	 */
+	void onRefreshTriggered();
+
+	/**
+	 * A last good value is served since redis is unavailable or the loading failed.
+	 */
+	void onStaleServed();
+}
@@ -0,0 +1,168 @@
+package com.neway6655.cache;
+
+/**
+ * CacheStats is an immutable snapshot of a cache's counters and latencies, recorded by {@link InMemoryCacheMetrics}.
+ * Latencies are in nanoseconds.
+ */
+public class CacheStats {
+
+	private final long nearCacheHitCount;
+
+	private final long redisHitCount;
+
+	private final long missCount;
+
+	private final long negativeHitCount;
+
+	private final long redisErrorCount;
+
+	private final long decodeFailureCount;
+
+	private final long encodeFailureCount;
+
+	private final long loadSuccessCount;
+
+	private final long loadFailureCount;
+
+	private final long loadRejectedCount;
+
+	private final long refreshCount;
+
+	private final long staleServedCount;
+
+	private final int refreshQueueSize;
+
+	private final int loadingKeyCount;
+
+	private final LatencyHistogram.Snapshot redisLatency;
+
+	private final LatencyHistogram.Snapshot decodeLatency;
+
+	private final LatencyHistogram.Snapshot encodeLatency;
+
+	private final LatencyHistogram.Snapshot loadLatency;
+
+	CacheStats(long nearCacheHitCount, long redisHitCount, long missCount, long negativeHitCount, long redisErrorCount,
+			long decodeFailureCount, long encodeFailureCount, long loadSuccessCount, long loadFailureCount,
+			long loadRejectedCount, long refreshCount, long staleServedCount, int refreshQueueSize, int loadingKeyCount,
+			LatencyHistogram.Snapshot redisLatency, LatencyHistogram.Snapshot decodeLatency,
+			LatencyHistogram.Snapshot encodeLatency, LatencyHistogram.Snapshot loadLatency) {
+		this.nearCacheHitCount = nearCacheHitCount;
+		this.redisHitCount = redisHitCount;
+		this.missCount = missCount;
+		this.negativeHitCount = negativeHitCount;
+		this.redisErrorCount = redisErrorCount;
+		this.decodeFailureCount = decodeFailureCount;
+		this.encodeFailureCount = encodeFailureCount;
+		this.loadSuccessCount = loadSuccessCount;
+		this.loadFailureCount = loadFailureCount;
+		this.loadRejectedCount = loadRejectedCount;
+		this.refreshCount = refreshCount;
+		this.staleServedCount = staleServedCount;
+		this.refreshQueueSize = refreshQueueSize;
+		this.loadingKeyCount = loadingKeyCount;
+		this.redisLatency = redisLatency;
+		this.decodeLatency = decodeLatency;
+		this.encodeLatency = encodeLatency;
+		this.loadLatency = loadLatency;
+	}
+
+	public long getHitCount() {
+		return nearCacheHitCount + redisHitCount;
+	}
+
+	/**
+	 * Ratio of hits to all reads, 1.0 if there is no read yet.
+	 */
+	public double getHitRate() {
+		long requestCount = getHitCount() + missCount;
+		return requestCount == 0 ? 1.0 : (double) getHitCount() / requestCount;
+	}
+
+	public long getNearCacheHitCount() {
+		return nearCacheHitCount;
+	}
+
+	public long getRedisHitCount() {
+		return redisHitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Reads of keys known to be absent, they are neither hits nor misses.
+	 */
+	public long getNegativeHitCount() {
+		return negativeHitCount;
+	}
+
+	public long getRedisErrorCount() {
+		return redisErrorCount;
+	}
+
+	public long getDecodeFailureCount() {
+		return decodeFailureCount;
+	}
+
+	public long getEncodeFailureCount() {
+		return encodeFailureCount;
+	}
+
+	public long getLoadSuccessCount() {
+		return loadSuccessCount;
+	}
+
+	public long getLoadFailureCount() {
+		return loadFailureCount;
+	}
+
+	public long getLoadRejectedCount() {
+		return loadRejectedCount;
+	}
+
+	public long getRefreshCount() {
+		return refreshCount;
+	}
+
+	public long getStaleServedCount() {
+		return staleServedCount;
+	}
+
+	public int getRefreshQueueSize() {
+		return refreshQueueSize;
+	}
+
+	public int getLoadingKeyCount() {
+		return loadingKeyCount;
+	}
+
+	public LatencyHistogram.Snapshot getRedisLatency() {
+		return redisLatency;
+	}
+
+	public LatencyHistogram.Snapshot getDecodeLatency() {
+		return decodeLatency;
+	}
+
+	public LatencyHistogram.Snapshot getEncodeLatency() {
+		return encodeLatency;
+	}
+
+	public LatencyHistogram.Snapshot getLoadLatency() {
+		return loadLatency;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats{hitRate=" + String.format("%.4f", getHitRate()) + ", nearCacheHits=" + nearCacheHitCount
+				+ ", redisHits=" + redisHitCount + ", misses=" + missCount + ", negativeHits=" + negativeHitCount
+				+ ", redisErrors=" + redisErrorCount + ", decodeFailures=" + decodeFailureCount + ", encodeFailures="
+				+ encodeFailureCount + ", loads=" + loadSuccessCount + ", loadFailures=" + loadFailureCount
+				+ ", loadRejections=" + loadRejectedCount + ", refreshes=" + refreshCount + ", staleServed="
+				+ staleServedCount + ", refreshQueueSize=" + refreshQueueSize + ", loadingKeys=" + loadingKeyCount
+				+ ", redisLatency={" + redisLatency + "}, decodeLatency={" + decodeLatency + "}, encodeLatency={"
+				+ encodeLatency + "}, loadLatency={" + loadLatency + "}}";
+	}
+}
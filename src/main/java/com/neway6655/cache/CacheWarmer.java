@@ -0,0 +1,132 @@
+package com.neway6655.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheWarmer preloads a set of keys into a cache before the node starts serving, so the first requests after a
+ * deploy or a redis failover hit the cache instead of all going to the backend at once.
+ *
+ * Keys are read in batches through {@link RedisLoadingCache#getAll(java.util.Collection)}, so keys already in redis
+ * only fill the near and stale tiers, and missed keys are loaded by the batch loader. At most parallelism batches are
+ * in flight at a time.
+ *
+ * The keys to warm up are usually the hot keys of the previous run, which can be saved by
+ * {@link #saveKeySnapshot(Iterable, File)} on shutdown and read back by {@link #loadKeySnapshot(File)} on startup.
+ */
+public class CacheWarmer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CacheWarmer.class);
+
+	private final RedisLoadingCache<?> cache;
+
+	private final int batchSize;
+
+	private final int parallelism;
+
+	public CacheWarmer(RedisLoadingCache<?> cache, int batchSize, int parallelism) {
+		Assert.notNull(cache, "Cache should not be null.");
+		Assert.isTrue(batchSize > 0, "Batch size must be a positive number.");
+		Assert.isTrue(parallelism > 0, "Parallelism must be a positive number.");
+		this.cache = cache;
+		this.batchSize = batchSize;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Warms up the keys, and waits until all of them are done or the timeout elapses, batches still running at the
+	 * timeout are cancelled.
+	 *
+	 * @return number of keys which are found or loaded.
+	 */
+	public int warmUp(Iterable<String> keys, long timeout, TimeUnit timeUnit) throws InterruptedException {
+		List<Callable<Integer>> batches = Lists.newArrayList();
+		for (final List<String> batch : Iterables.partition(keys, batchSize)) {
+			batches.add(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return cache.getAll(batch).size();
+				}
+			});
+		}
+		if (batches.isEmpty()) {
+			return 0;
+		}
+
+		long startTime = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, batches.size()),
+				new ThreadFactoryBuilder().setNameFormat("cache-warmer-%d").setDaemon(true).build());
+		int warmedKeys = 0;
+		int failedBatches = 0;
+		try {
+			for (Future<Integer> future : executor.invokeAll(batches, timeout, timeUnit)) {
+				try {
+					warmedKeys += future.get();
+				} catch (ExecutionException e) {
+					failedBatches++;
+					LOG.warn("Failed to warm up a batch of keys.", e.getCause());
+				} catch (CancellationException e) {
+					failedBatches++;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		LOG.info("Warmed up {} keys in {} milliseconds, {} of {} batches failed or timed out.", warmedKeys,
+				System.currentTimeMillis() - startTime, failedBatches, batches.size());
+		return warmedKeys;
+	}
+
+	/**
+	 * Saves the keys to the file, one key per line. Keys containing line breaks are skipped.
+	 */
+	public static void saveKeySnapshot(Iterable<String> keys, File file) throws IOException {
+		List<String> lines = Lists.newArrayList();
+		for (String key : keys) {
+			if (StringUtils.isNotEmpty(key) && !StringUtils.containsAny(key, '\r', '\n')) {
+				lines.add(key);
+			}
+		}
+
+		// write to a temporary file first, so a crash while saving does not leave a truncated snapshot.
+		File tempFile = new File(file.getPath() + ".tmp");
+		Files.asCharSink(tempFile, Charsets.UTF_8).writeLines(lines);
+		Files.move(tempFile, file);
+	}
+
+	/**
+	 * Reads the keys saved by {@link #saveKeySnapshot(Iterable, File)}, an empty list if the file does not exist.
+	 */
+	public static List<String> loadKeySnapshot(File file) throws IOException {
+		if (!file.exists()) {
+			return Lists.newArrayList();
+		}
+
+		List<String> keys = Lists.newArrayList();
+		for (String line : Files.readLines(file, Charsets.UTF_8)) {
+			if (StringUtils.isNotEmpty(line)) {
+				keys.add(line);
+			}
+		}
+		return keys;
+	}
+}
@@ -4,6 +4,9 @@ public class CachedObject {
 	
 	private long expiredTime;
 
+	// how long the value took to load, kept with the in-process copies for early refresh, it is not encoded.
+	private transient int loadTimeInMillis;
+
 	public long getExpiredTime() {
 		return expiredTime;
 	}
@@ -11,6 +14,14 @@ public class CachedObject {
 	public void setExpiredTime(long expiredTime) {
 		this.expiredTime = expiredTime;
 	}
+
+	int getLoadTimeInMillis() {
+		return loadTimeInMillis;
+	}
+
+	void setLoadTimeInMillis(int loadTimeInMillis) {
+		this.loadTimeInMillis = loadTimeInMillis;
+	}
 	
 	
 }
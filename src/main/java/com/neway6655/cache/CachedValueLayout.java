@@ -0,0 +1,99 @@
+package com.neway6655.cache;
+
+/**
+ * Layout of the values stored in redis: a fixed-width header followed by the payload encoded by {@link CacheCodec}.
+ *
+ * <pre>
+ * +-------+---------+------------------------+---------------------+---------+
+ * | magic | version | expired time in millis | load time in millis | payload |
+ * | 1     | 1       | 8, big endian          | 4, big endian       | ...     |
+ * +-------+---------+------------------------+---------------------+---------+
+ * </pre>
+ *
+ * The header lets the cache decide whether a value needs refreshing without decoding the payload, the load time is how
+ * long the value took to load, which is used by the probabilistic early refresh. A tombstone, which marks a key the
+ * loader found absent, is a header without payload, an encoded object is never empty. Values written by
+ * earlier versions have no header, they are recognized by the missing magic byte, which neither json, smile nor gzip
+ * starts with.
+ * <p>
+ * The version is bumped whenever the header changes. Values written under another version, such as the 10 bytes
+ * header of version 1 which had no load time, are not decoded: they are read as a miss, reloaded and rewritten.
+ */
+final class CachedValueLayout {
+
+	private static final byte MAGIC = (byte) 0xca;
+
+	private static final byte VERSION = 2;
+
+	static final int HEADER_LENGTH = 14;
+
+	private CachedValueLayout() {
+	}
+
+	static byte[] wrap(long expiredTimeInMillis, int loadTimeInMillis, byte[] payload) {
+		byte[] value = new byte[HEADER_LENGTH + payload.length];
+		value[0] = MAGIC;
+		value[1] = VERSION;
+		for (int i = 0; i < 8; i++) {
+			value[2 + i] = (byte) (expiredTimeInMillis >>> (56 - 8 * i));
+		}
+		for (int i = 0; i < 4; i++) {
+			value[10 + i] = (byte) (loadTimeInMillis >>> (24 - 8 * i));
+		}
+		System.arraycopy(payload, 0, value, HEADER_LENGTH, payload.length);
+		return value;
+	}
+
+	static byte[] tombstone(long expiredTimeInMillis) {
+		return wrap(expiredTimeInMillis, 0, new byte[0]);
+	}
+
+	static boolean isTombstone(byte[] value) {
+		return value.length == HEADER_LENGTH && hasHeader(value);
+	}
+
+	static boolean hasHeader(byte[] value) {
+		return value.length >= HEADER_LENGTH && value[0] == MAGIC && value[1] == VERSION;
+	}
+
+	/**
+	 * @return true if the value has a header written under another version of this layout.
+	 */
+	static boolean hasOtherVersion(byte[] value) {
+		return value.length >= 2 && value[0] == MAGIC && value[1] != VERSION;
+	}
+
+	/**
+	 * @return expired time stored in the header, or 0 if the value has no header.
+	 */
+	static long getExpiredTimeInMillis(byte[] value) {
+		if (!hasHeader(value)) {
+			return 0;
+		}
+
+		long expiredTimeInMillis = 0;
+		for (int i = 0; i < 8; i++) {
+			expiredTimeInMillis = (expiredTimeInMillis << 8) | (value[2 + i] & 0xff);
+		}
+		return expiredTimeInMillis;
+	}
+
+	/**
+	 * @return load time stored in the header, or 0 if the value has no header.
+	 */
+	static int getLoadTimeInMillis(byte[] value) {
+		if (!hasHeader(value)) {
+			return 0;
+		}
+
+		int loadTimeInMillis = 0;
+		for (int i = 0; i < 4; i++) {
+			loadTimeInMillis = (loadTimeInMillis << 8) | (value[10 + i] & 0xff);
+		}
+		return loadTimeInMillis;
+	}
+
+	static int getPayloadOffset(byte[] value) {
+		return hasHeader(value) ? HEADER_LENGTH : 0;
+	}
+}
@@ -0,0 +1,71 @@
+package com.neway6655.cache;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CircuitBreaker stops calling the backend service after it failed failureThreshold times in a row. The circuit stays
+ * open for openDuration, then lets a single trial call through: the circuit closes if the trial succeeds, or opens for
+ * another openDuration if it fails.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+
+	private final long openDurationInMillis;
+
+	private State state = State.CLOSED;
+
+	private int consecutiveFailures;
+
+	private long openedTime;
+
+	public CircuitBreaker(int failureThreshold, long openDuration, TimeUnit timeUnit) {
+		Assert.isTrue(failureThreshold > 0, "Failure threshold must be a positive number.");
+		Assert.isTrue(openDuration > 0, "Open duration must be a positive number.");
+		this.failureThreshold = failureThreshold;
+		this.openDurationInMillis = timeUnit.toMillis(openDuration);
+	}
+
+	/**
+	 * Whether a call may go through, every allowed call must report its outcome by {@link #onSuccess()} or
+	 * {@link #onFailure()}.
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.currentTimeMillis() - openedTime >= openDurationInMillis) {
+				state = State.HALF_OPEN;
+				return true;
+			}
+			return false;
+		default:
+			// the trial call is in flight.
+			return false;
+		}
+	}
+
+	public synchronized void onSuccess() {
+		consecutiveFailures = 0;
+		state = State.CLOSED;
+	}
+
+	public synchronized void onFailure() {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			state = State.OPEN;
+			openedTime = System.currentTimeMillis();
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+}
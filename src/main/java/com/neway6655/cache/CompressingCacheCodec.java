@@ -0,0 +1,69 @@
+package com.neway6655.cache;
+
+import com.google.common.io.ByteStreams;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CacheCodec decorator which gzips the encoded bytes larger than a threshold, small values are stored as they are since
+ * compressing them costs more cpu than it saves.
+ *
+ * Compressed values are recognized by the gzip magic number, which neither json nor smile starts with, so values written
+ * before compression was enabled are still readable.
+ */
+public class CompressingCacheCodec implements CacheCodec {
+
+	private static final int GZIP_MAGIC_FIRST_BYTE = 0x1f;
+
+	private static final int GZIP_MAGIC_SECOND_BYTE = 0x8b;
+
+	private final CacheCodec codec;
+
+	private final int thresholdInBytes;
+
+	public CompressingCacheCodec(CacheCodec codec, int thresholdInBytes) {
+		Assert.notNull(codec, "Codec should not be null.");
+		Assert.isTrue(thresholdInBytes >= 0, "Compression threshold must not be negative.");
+		this.codec = codec;
+		this.thresholdInBytes = thresholdInBytes;
+	}
+
+	@Override
+	public byte[] encode(Object object) throws IOException {
+		byte[] bytes = codec.encode(object);
+		if (bytes.length <= thresholdInBytes) {
+			return bytes;
+		}
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		gzip.write(bytes);
+		gzip.close();
+		return compressed.toByteArray();
+	}
+
+	@Override
+	public <T> T decode(byte[] bytes, int offset, int length, Class<T> type) throws IOException {
+		if (!isCompressed(bytes, offset, length)) {
+			return codec.decode(bytes, offset, length, type);
+		}
+
+		GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes, offset, length));
+		try {
+			byte[] decompressed = ByteStreams.toByteArray(gzip);
+			return codec.decode(decompressed, 0, decompressed.length, type);
+		} finally {
+			gzip.close();
+		}
+	}
+
+	private static boolean isCompressed(byte[] bytes, int offset, int length) {
+		return length > 2 && (bytes[offset] & 0xff) == GZIP_MAGIC_FIRST_BYTE
+				&& (bytes[offset + 1] & 0xff) == GZIP_MAGIC_SECOND_BYTE;
+	}
+}
@@ -0,0 +1,157 @@
+package com.neway6655.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.springframework.util.Assert;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * HotKeyDetector finds the most frequently read keys in real time, with a Count-Min sketch of fixed size counting the
+ * reads of every key, and the top K keys whose estimated count reaches the hot threshold.
+ *
+ * Counts decay: after every sampleSize reads all counts are halved, so a key which is no longer read cools down and
+ * leaves the hot keys. Reads served from a copy pinned because the key is hot should be recorded as well, or a pinned
+ * key cools down while it is read. A Count-Min sketch only over-estimates, a key may be taken as hot a bit early when it collides
+ * with hot keys, but a hot key is never missed.
+ *
+ * Recording is lock-free, the halving is done by the recording thread which crosses the sample size, concurrent reads
+ * during the halving are counted approximately.
+ */
+public class HotKeyDetector {
+
+	private static final int DEFAULT_SAMPLE_SIZE = 10000;
+
+	private static final int DEPTH = 4;
+
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+	private final int topK;
+
+	private final int hotThreshold;
+
+	private final int sampleSize;
+
+	private final int widthMask;
+
+	private final AtomicIntegerArray counts;
+
+	private final AtomicInteger reads = new AtomicInteger();
+
+	private final ConcurrentMap<String, Integer> hotKeys = Maps.newConcurrentMap();
+
+	public HotKeyDetector(int topK, int hotThreshold) {
+		this(topK, hotThreshold, DEFAULT_SAMPLE_SIZE);
+	}
+
+	/**
+	 * @param hotThreshold the estimated count of reads in about sampleSize reads, for a key to be hot.
+	 */
+	public HotKeyDetector(int topK, int hotThreshold, int sampleSize) {
+		Assert.isTrue(topK > 0, "Top K must be a positive number.");
+		Assert.isTrue(hotThreshold > 0, "Hot threshold must be a positive number.");
+		Assert.isTrue(sampleSize >= hotThreshold, "Sample size must not be less than the hot threshold.");
+		this.topK = topK;
+		this.hotThreshold = hotThreshold;
+		this.sampleSize = sampleSize;
+
+		// about 1 counter per 2 reads in a sample keeps the over-estimation well below any sensible hot threshold.
+		int width = Integer.highestOneBit(Math.max(64, sampleSize / 2) - 1) << 1;
+		this.widthMask = width - 1;
+		this.counts = new AtomicIntegerArray(DEPTH * width);
+	}
+
+	/**
+	 * Records a read of the key.
+	 *
+	 * @return whether the key is hot.
+	 */
+	public boolean record(String key) {
+		long hash = HASH_FUNCTION.hashString(key, Charsets.UTF_8).asLong();
+		int hash1 = (int) hash;
+		int hash2 = (int) (hash >>> 32);
+
+		int estimate = Integer.MAX_VALUE;
+		for (int i = 0; i < DEPTH; i++) {
+			int index = i * (widthMask + 1) + ((hash1 + i * hash2) & widthMask);
+			estimate = Math.min(estimate, counts.incrementAndGet(index));
+		}
+
+		if (reads.incrementAndGet() == sampleSize) {
+			decay();
+		}
+
+		if (estimate < hotThreshold) {
+			return false;
+		}
+		hotKeys.put(key, estimate);
+		if (hotKeys.size() > topK) {
+			evictColdest();
+		}
+		return hotKeys.containsKey(key);
+	}
+
+	public boolean isHot(String key) {
+		return hotKeys.containsKey(key);
+	}
+
+	/**
+	 * The current hot keys, ordered by their estimated count of reads, the hottest first.
+	 */
+	public Map<String, Integer> getHotKeys() {
+		List<Map.Entry<String, Integer>> entries = Lists.newArrayList(hotKeys.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+			@Override
+			public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
+				return o2.getValue().compareTo(o1.getValue());
+			}
+		});
+
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, Integer> entry : entries) {
+			result.put(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	private void evictColdest() {
+		Map.Entry<String, Integer> coldest = null;
+		for (Map.Entry<String, Integer> entry : hotKeys.entrySet()) {
+			if (coldest == null || entry.getValue() < coldest.getValue()) {
+				coldest = entry;
+			}
+		}
+		if (coldest != null) {
+			hotKeys.remove(coldest.getKey(), coldest.getValue());
+		}
+	}
+
+	private void decay() {
+		reads.addAndGet(-sampleSize);
+		for (int i = 0; i < counts.length(); i++) {
+			int count = counts.get(i);
+			while (count > 0 && !counts.compareAndSet(i, count, count >>> 1)) {
+				count = counts.get(i);
+			}
+		}
+
+		for (Map.Entry<String, Integer> entry : hotKeys.entrySet()) {
+			int count = entry.getValue() >>> 1;
+			if (count < hotThreshold) {
+				hotKeys.remove(entry.getKey(), entry.getValue());
+			} else {
+				hotKeys.replace(entry.getKey(), entry.getValue(), count);
+			}
+		}
+	}
+}
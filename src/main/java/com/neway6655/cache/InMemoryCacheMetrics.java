@@ -0,0 +1,123 @@
+package com.neway6655.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * InMemoryCacheMetrics keeps counters and latency histograms of a cache in memory, since the cache was built. It is
+ * lock-free and cheap enough to be left on in production, snapshots are taken by {@link RedisLoadingCache#getStats()}.
+ *
+ * Override the event methods and call super to forward events to a metrics system as well.
+ */
+public class InMemoryCacheMetrics implements CacheMetricsListener {
+
+	private final AtomicLong nearCacheHitCount = new AtomicLong();
+
+	private final AtomicLong redisHitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong negativeHitCount = new AtomicLong();
+
+	private final AtomicLong redisErrorCount = new AtomicLong();
+
+	private final AtomicLong decodeFailureCount = new AtomicLong();
+
+	private final AtomicLong encodeFailureCount = new AtomicLong();
+
+	private final AtomicLong loadSuccessCount = new AtomicLong();
+
+	private final AtomicLong loadFailureCount = new AtomicLong();
+
+	private final AtomicLong loadRejectedCount = new AtomicLong();
+
+	private final AtomicLong refreshCount = new AtomicLong();
+
+	private final AtomicLong staleServedCount = new AtomicLong();
+
+	private final LatencyHistogram redisLatency = new LatencyHistogram();
+
+	private final LatencyHistogram decodeLatency = new LatencyHistogram();
+
+	private final LatencyHistogram encodeLatency = new LatencyHistogram();
+
+	private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+	@Override
+	public void onNearCacheHit() {
+		nearCacheHitCount.incrementAndGet();
+	}
+
+	@Override
+	public void onRedisHit() {
+		redisHitCount.incrementAndGet();
+	}
+
+	@Override
+	public void onMiss() {
+		missCount.incrementAndGet();
+	}
+
+	@Override
+	public void onNegativeHit() {
+		negativeHitCount.incrementAndGet();
+	}
+
+	@Override
+	public void onRedisCall(long latencyInNanos, boolean success) {
+		// skipped and failed calls mostly end on a connection timeout, they would only blur the latency of redis.
+		if (success) {
+			redisLatency.record(latencyInNanos);
+		} else {
+			redisErrorCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void onDecode(long latencyInNanos, boolean success) {
+		decodeLatency.record(latencyInNanos);
+		if (!success) {
+			decodeFailureCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void onEncode(long latencyInNanos, boolean success) {
+		encodeLatency.record(latencyInNanos);
+		if (!success) {
+			encodeFailureCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void onLoad(long latencyInNanos, boolean success) {
+		loadLatency.record(latencyInNanos);
+		if (success) {
+			loadSuccessCount.incrementAndGet();
+		} else {
+			loadFailureCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void onLoadRejected() {
+		loadRejectedCount.incrementAndGet();
+	}
+
+	@Override
+	public void onRefreshTriggered() {
+		refreshCount.incrementAndGet();
+	}
+
+	@Override
+	public void onStaleServed() {
+		staleServedCount.incrementAndGet();
+	}
+
+	CacheStats snapshot(int refreshQueueSize, int loadingKeyCount) {
+		return new CacheStats(nearCacheHitCount.get(), redisHitCount.get(), missCount.get(), negativeHitCount.get(),
+				redisErrorCount.get(), decodeFailureCount.get(), encodeFailureCount.get(), loadSuccessCount.get(),
+				loadFailureCount.get(), loadRejectedCount.get(), refreshCount.get(), staleServedCount.get(),
+				refreshQueueSize, loadingKeyCount, redisLatency.snapshot(), decodeLatency.snapshot(),
+				encodeLatency.snapshot(), loadLatency.snapshot());
+	}
+}
@@ -0,0 +1,28 @@
+package com.neway6655.cache;
+
+/**
+ * InvalidationBus broadcasts invalidations of cached keys to all nodes, so a write on one node drops the stale copies
+ * kept in the in-process tiers of the others. Delivery is best effort, a lost invalidation leaves a stale copy until
+ * it expires by itself.
+ *
+ * See {@link RedisInvalidationBus} for the redis pub/sub based one.
+ */
+public interface InvalidationBus {
+
+	void publish(String channel, InvalidationMessage message);
+
+	/**
+	 * Subscribes to the channel, the listener is called on the bus's thread, it should return quickly.
+	 */
+	void subscribe(String channel, Listener listener);
+
+	/**
+	 * Removes a listener subscribed to the channel, e.g. when its cache is closed.
+	 */
+	void unsubscribe(String channel, Listener listener);
+
+	interface Listener {
+
+		void onMessage(InvalidationMessage message);
+	}
+}
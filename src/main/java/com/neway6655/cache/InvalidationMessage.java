@@ -0,0 +1,37 @@
+package com.neway6655.cache;
+
+import java.util.List;
+
+/**
+ * A batch of invalidated keys, and the node which invalidated them, so the node skips its own message.
+ */
+public class InvalidationMessage {
+
+	private String sender;
+
+	private List<String> keys;
+
+	public InvalidationMessage() {
+	}
+
+	public InvalidationMessage(String sender, List<String> keys) {
+		this.sender = sender;
+		this.keys = keys;
+	}
+
+	public String getSender() {
+		return sender;
+	}
+
+	public void setSender(String sender) {
+		this.sender = sender;
+	}
+
+	public List<String> getKeys() {
+		return keys;
+	}
+
+	public void setKeys(List<String> keys) {
+		this.keys = keys;
+	}
+}
@@ -0,0 +1,109 @@
+package com.neway6655.cache;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Batches invalidated keys of a cache into messages: the first key invalidated schedules a flush after the batch
+ * interval, all keys invalidated until then are published together, in messages of up to maxBatchSize distinct keys,
+ * so a write burst costs a few messages rather than one per write.
+ *
+ * Flushes run on a thread of their own, a publish blocked by an unreachable redis must not hold the threads of the
+ * caches, such as the one firing the loading timeouts.
+ */
+class InvalidationPublisher {
+
+	private static final Logger LOG = LoggerFactory.getLogger(InvalidationPublisher.class);
+
+	private final InvalidationBus invalidationBus;
+
+	private final String channel;
+
+	private final String sender;
+
+	private final long batchIntervalInMillis;
+
+	private final int maxBatchSize;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final ConcurrentLinkedQueue<String> pendingKeys = new ConcurrentLinkedQueue<String>();
+
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	InvalidationPublisher(InvalidationBus invalidationBus, String channel, String sender, long batchIntervalInMillis,
+			int maxBatchSize) {
+		this.invalidationBus = invalidationBus;
+		this.channel = channel;
+		this.sender = sender;
+		this.batchIntervalInMillis = batchIntervalInMillis;
+		this.maxBatchSize = maxBatchSize;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("cache-invalidation-" + channel).setDaemon(true).build());
+	}
+
+	void publish(String key) {
+		pendingKeys.add(key);
+		if (flushScheduled.compareAndSet(false, true)) {
+			try {
+				scheduler.schedule(flushTask, batchIntervalInMillis, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// closed, the key is published by the caller.
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Publishes all pending keys, and stops the flush thread.
+	 */
+	void close() {
+		scheduler.shutdown();
+		flush();
+	}
+
+	/**
+	 * Publishes all pending keys.
+	 */
+	void flush() {
+		// keys added from now on schedule another flush, so none of them is left behind.
+		flushScheduled.set(false);
+
+		Set<String> keys = Sets.newLinkedHashSet();
+		String key;
+		while ((key = pendingKeys.poll()) != null) {
+			keys.add(key);
+		}
+		for (List<String> batch : Iterables.partition(keys, maxBatchSize)) {
+			send(batch);
+		}
+	}
+
+	private void send(List<String> batch) {
+		try {
+			invalidationBus.publish(channel, new InvalidationMessage(sender, batch));
+		} catch (RuntimeException e) {
+			LOG.warn("Failed to publish invalidation of {} keys, other nodes may serve them stale until expired: {}.",
+					batch.size(), e.getMessage());
+		}
+	}
+}
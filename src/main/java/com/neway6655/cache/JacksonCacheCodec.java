@@ -0,0 +1,39 @@
+package com.neway6655.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+
+/**
+ * CacheCodec backed by a jackson ObjectMapper.
+ *
+ * {@link #json()} keeps cached objects as json text, which is what earlier versions stored, {@link #smile()} stores them
+ * in Smile, the binary json format of jackson, which is smaller and cheaper to parse.
+ */
+public class JacksonCacheCodec implements CacheCodec {
+
+	private final ObjectMapper mapper;
+
+	public JacksonCacheCodec(ObjectMapper mapper) {
+		this.mapper = mapper;
+	}
+
+	public static JacksonCacheCodec json() {
+		return new JacksonCacheCodec(new ObjectMapper());
+	}
+
+	public static JacksonCacheCodec smile() {
+		return new JacksonCacheCodec(new ObjectMapper(new SmileFactory()));
+	}
+
+	@Override
+	public byte[] encode(Object object) throws IOException {
+		return mapper.writeValueAsBytes(object);
+	}
+
+	@Override
+	public <T> T decode(byte[] bytes, int offset, int length, Class<T> type) throws IOException {
+		return mapper.readValue(bytes, offset, length, type);
+	}
+}
@@ -0,0 +1,59 @@
+package com.neway6655.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * KnownKeyFilter is a bloom filter of all keys which may exist, e.g. all ids in the database, a key not in the filter
+ * is absent for sure, so it is answered without touching redis or the backend. A key in the filter may still be absent
+ * with the false positive probability.
+ *
+ * The filter must be told of new keys by {@link #put(String)}, or they are never loaded. Reads run concurrently, puts
+ * are serialized since {@link BloomFilter} is not thread-safe.
+ */
+public class KnownKeyFilter {
+
+	private final BloomFilter<CharSequence> bloomFilter;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public KnownKeyFilter(long expectedKeys, double falsePositiveProbability) {
+		Assert.isTrue(expectedKeys > 0, "Expected keys must be a positive number.");
+		this.bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), (int) Math.min(Integer.MAX_VALUE,
+				expectedKeys), falsePositiveProbability);
+	}
+
+	public boolean mightContain(String key) {
+		lock.readLock().lock();
+		try {
+			return bloomFilter.mightContain(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public void put(String key) {
+		lock.writeLock().lock();
+		try {
+			bloomFilter.put(key);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void putAll(Iterable<String> keys) {
+		lock.writeLock().lock();
+		try {
+			for (String key : keys) {
+				bloomFilter.put(key);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.neway6655.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import org.springframework.util.Assert;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NearCache is an optional in-process tier in front of redis, it keeps the deserialized cached objects of recently read
+ * keys, so hot keys are served without a redis round-trip and json deserialization.
+ *
+ * The size of near cache is bounded, least recently used entries are evicted first. An entry is dropped when it is
+ * older than expireAfterWrite, or its {@link CachedObject#getExpiredTime()} has passed, whichever comes first, so a
+ * near cached object never outlives the redis copy it was read from.
+ *
+ * Cached objects are shared between callers, they should be treated as read-only.
+ *
+ * @param <T>
+ */
+public class NearCache<T extends CachedObject> {
+
+	private final Cache<String, T> cache;
+
+	public NearCache(long maximumSize, long expireAfterWrite, TimeUnit timeUnit) {
+		Assert.isTrue(maximumSize > 0, "Near cache maximum size must be a positive number.");
+		Assert.isTrue(expireAfterWrite > 0, "Near cache expire after write must be a positive number.");
+		this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(expireAfterWrite, timeUnit)
+				.build();
+	}
+
+	public T get(String key) {
+		T cachedObject = cache.getIfPresent(key);
+		if (cachedObject == null) {
+			return null;
+		}
+
+		if (cachedObject.getExpiredTime() <= System.currentTimeMillis() / 1000) {
+			cache.invalidate(key);
+			return null;
+		}
+
+		return cachedObject;
+	}
+
+	public void put(String key, T cachedObject) {
+		cache.put(key, cachedObject);
+	}
+
+	public void invalidate(String key) {
+		cache.invalidate(key);
+	}
+
+	/**
+	 * Snapshot of the near cached keys.
+	 */
+	public Set<String> keys() {
+		return ImmutableSet.copyOf(cache.asMap().keySet());
+	}
+
+	public long size() {
+		return cache.size();
+	}
+}
@@ -0,0 +1,47 @@
+package com.neway6655.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NegativeCache remembers in process the keys which the loader found absent, so repeated lookups of absent keys, such
+ * as nonexistent ids requested by bots, are answered without touching redis or the backend.
+ *
+ * An entry expires after the negative ttl, the same as the tombstone written to redis, or is dropped once a value of
+ * the key is cached.
+ */
+public class NegativeCache {
+
+	private final Cache<String, Boolean> cache;
+
+	private final long ttlInMillis;
+
+	public NegativeCache(long maximumSize, long ttl, TimeUnit timeUnit) {
+		Assert.isTrue(maximumSize > 0, "Negative cache maximum size must be a positive number.");
+		Assert.isTrue(ttl > 0, "Negative cache ttl must be a positive number.");
+		this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl, timeUnit).build();
+		this.ttlInMillis = timeUnit.toMillis(ttl);
+	}
+
+	public boolean contains(String key) {
+		return cache.getIfPresent(key) != null;
+	}
+
+	public void put(String key) {
+		cache.put(key, Boolean.TRUE);
+	}
+
+	public void invalidate(String key) {
+		cache.invalidate(key);
+	}
+
+	/**
+	 * Ttl of the tombstones written to redis.
+	 */
+	public long getTtlInMillis() {
+		return ttlInMillis;
+	}
+}
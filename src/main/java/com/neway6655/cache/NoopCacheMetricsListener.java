@@ -0,0 +1,53 @@
+package com.neway6655.cache;
+
+/**
+ * NoopCacheMetricsListener ignores all events, it is the default listener of caches.
+ */
+public class NoopCacheMetricsListener implements CacheMetricsListener {
+
+	public static final NoopCacheMetricsListener INSTANCE = new NoopCacheMetricsListener();
+
+	@Override
+	public void onNearCacheHit() {
+	}
+
+	@Override
+	public void onRedisHit() {
+	}
+
+	@Override
+	public void onMiss() {
+	}
+
+	@Override
+	public void onNegativeHit() {
+	}
+
+	@Override
+	public void onRedisCall(long latencyInNanos, boolean success) {
+	}
+
+	@Override
+	public void onDecode(long latencyInNanos, boolean success) {
+	}
+
+	@Override
+	public void onEncode(long latencyInNanos, boolean success) {
+	}
+
+	@Override
+	public void onLoad(long latencyInNanos, boolean success) {
+	}
+
+	@Override
+	public void onLoadRejected() {
+	}
+
+	@Override
+	public void onRefreshTriggered() {
+	}
+
+	@Override
+	public void onStaleServed() {
+	}
+}
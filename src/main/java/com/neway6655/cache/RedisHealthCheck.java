@@ -0,0 +1,63 @@
+package com.neway6655.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RedisHealthCheck lets callers fail fast while redis is unavailable: once a redis call fails with connection failure,
+ * redis is marked unavailable for a retry interval, during which callers skip redis instead of each waiting for a
+ * connection timeout. When the interval is over, a single caller is let through to probe redis, others keep failing
+ * fast until the probe tells redis is back.
+ */
+public class RedisHealthCheck {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RedisHealthCheck.class);
+
+	private final long retryIntervalInMillis;
+
+	/**
+	 * Time before which redis is treated as unavailable, 0 if redis is available.
+	 */
+	private final AtomicLong unavailableUntil = new AtomicLong();
+
+	public RedisHealthCheck(long retryInterval, TimeUnit timeUnit) {
+		Assert.isTrue(retryInterval > 0, "Retry interval must be a positive number.");
+		this.retryIntervalInMillis = timeUnit.toMillis(retryInterval);
+	}
+
+	public boolean isAvailable() {
+		long until = unavailableUntil.get();
+		if (until == 0) {
+			return true;
+		}
+
+		long now = System.currentTimeMillis();
+		// only the caller who pushes the retry time forward probes redis.
+		return now >= until && unavailableUntil.compareAndSet(until, now + retryIntervalInMillis);
+	}
+
+	/**
+	 * Whether redis has been marked unavailable, unlike {@link #isAvailable()} it never lets the caller probe redis.
+	 */
+	public boolean isMarkedUnavailable() {
+		return unavailableUntil.get() != 0;
+	}
+
+	public void markAvailable() {
+		if (unavailableUntil.get() != 0) {
+			unavailableUntil.set(0);
+			LOG.info("Cache service is available again.");
+		}
+	}
+
+	public void markUnavailable(Exception cause) {
+		if (unavailableUntil.getAndSet(System.currentTimeMillis() + retryIntervalInMillis) == 0) {
+			LOG.error("Cache service is unavailable, skip it in the next {} milliseconds.", retryIntervalInMillis,
+					cause);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.neway6655.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InvalidationBus over redis pub/sub, messages are json. Redis pub/sub is fire and forget, messages published while a
+ * node is disconnected are lost to that node.
+ *
+ * The bus holds a subscriber connection, it may be shared by all caches and should be closed on shutdown.
+ *
+ * Publishes go through a {@link RedisHealthCheck}, so they fail fast while redis is known to be unavailable rather than
+ * each waiting for a connection timeout.
+ */
+public class RedisInvalidationBus implements InvalidationBus, Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RedisInvalidationBus.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final RedisTemplate jedisTemplate;
+
+	private final RedisMessageListenerContainer listenerContainer;
+
+	private final RedisHealthCheck redisHealthCheck;
+
+	private final ConcurrentMap<Listener, MessageListener> messageListeners = Maps.newConcurrentMap();
+
+	public RedisInvalidationBus(RedisTemplate redisTemplate) {
+		this(redisTemplate, new RedisHealthCheck(1, TimeUnit.SECONDS));
+	}
+
+	public RedisInvalidationBus(RedisTemplate redisTemplate, RedisHealthCheck redisHealthCheck) {
+		Assert.notNull(redisHealthCheck, "Redis health check should not be null.");
+		this.jedisTemplate = redisTemplate;
+		this.redisHealthCheck = redisHealthCheck;
+		this.listenerContainer = new RedisMessageListenerContainer();
+		listenerContainer.setConnectionFactory(redisTemplate.getConnectionFactory());
+		listenerContainer.afterPropertiesSet();
+		listenerContainer.start();
+	}
+
+	@Override
+	public void publish(String channel, InvalidationMessage message) {
+		final byte[] rawChannel = channel.getBytes(UTF_8);
+		final byte[] rawMessage;
+		try {
+			rawMessage = mapper.writeValueAsBytes(message);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Failed to encode invalidation message.", e);
+		}
+
+		if (!redisHealthCheck.isAvailable()) {
+			throw new RedisConnectionFailureException("Cache service is unavailable, skip it until next retry.");
+		}
+		try {
+			jedisTemplate.execute(new RedisCallback<Object>() {
+				@Override
+				public Object doInRedis(RedisConnection connection) throws DataAccessException {
+					return connection.publish(rawChannel, rawMessage);
+				}
+			});
+			redisHealthCheck.markAvailable();
+		} catch (RedisConnectionFailureException e) {
+			redisHealthCheck.markUnavailable(e);
+			throw e;
+		}
+	}
+
+	@Override
+	public void subscribe(String channel, final Listener listener) {
+		MessageListener messageListener = new MessageListener() {
+			@Override
+			public void onMessage(Message message, byte[] pattern) {
+				try {
+					listener.onMessage(mapper.readValue(message.getBody(), InvalidationMessage.class));
+				} catch (IOException e) {
+					LOG.warn("Failed to decode invalidation message: {}.", e.getMessage());
+				}
+			}
+		};
+		messageListeners.put(listener, messageListener);
+		listenerContainer.addMessageListener(messageListener, new ChannelTopic(channel));
+	}
+
+	/**
+	 * Removes the listener, the channel is unsubscribed once it has no listener left. The subscriber connection is kept
+	 * until the bus is closed, since the bus may be shared.
+	 */
+	@Override
+	public void unsubscribe(String channel, Listener listener) {
+		MessageListener messageListener = messageListeners.remove(listener);
+		if (messageListener != null) {
+			listenerContainer.removeMessageListener(messageListener, new ChannelTopic(channel));
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			listenerContainer.destroy();
+		} catch (Exception e) {
+			LOG.warn("Failed to close invalidation listener container.", e);
+		}
+	}
+}
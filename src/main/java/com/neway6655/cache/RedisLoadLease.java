@@ -0,0 +1,162 @@
+package com.neway6655.cache;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.util.Assert;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisLoadLease makes sure only one node of the cluster loads a given key at a time, it is a lease kept in redis and
+ * acquired by "SET lease token NX PX leaseTime", so a node crashed while loading never blocks the key for longer than the
+ * lease time.
+ *
+ * Each acquired lease carries a fencing token, which is taken from a counter increased on every acquiring, so a later
+ * lease always has a larger token. A holder writes its result by {@link #executeIfNotSuperseded}, which checks the
+ * token and writes in one transaction watching the lease, so a holder whose lease has expired and been acquired by
+ * another node never writes over the newer holder's result.
+ */
+public class RedisLoadLease {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte[] NX = "NX".getBytes(UTF_8);
+
+	private static final byte[] PX = "PX".getBytes(UTF_8);
+
+	private RedisTemplate jedisTemplate;
+
+	private String leaseKeyPrefix;
+
+	private String fenceKey;
+
+	private long leaseTimeInMillis;
+
+	public RedisLoadLease(RedisTemplate redisTemplate, String name, long leaseTime, TimeUnit timeUnit) {
+		Assert.hasText(name, "Lease name should not be empty.");
+		Assert.isTrue(leaseTime > 0, "Lease time must be a positive number.");
+		this.jedisTemplate = redisTemplate;
+		this.leaseKeyPrefix = name + ":lease:";
+		this.fenceKey = name + ":lease-fence";
+		this.leaseTimeInMillis = timeUnit.toMillis(leaseTime);
+	}
+
+	/**
+	 * Tries to acquire the lease of loading the key.
+	 *
+	 * @return the fencing token of the acquired lease, or null if the lease is held by others.
+	 */
+	public Long tryAcquire(final String key) {
+		return (Long) jedisTemplate.execute(new RedisCallback<Long>() {
+			@Override
+			public Long doInRedis(RedisConnection connection) throws DataAccessException {
+				Long token = connection.incr(rawKey(fenceKey));
+				Object reply = connection.execute("SET", rawKey(leaseKeyPrefix + key), rawValue(token), NX, PX,
+						rawValue(leaseTimeInMillis));
+				return reply == null ? null : token;
+			}
+		});
+	}
+
+	/**
+	 * Releases the lease of the key if it is still held by the given token, the check and the release are one
+	 * transaction watching the lease.
+	 */
+	public void release(final String key, final long token) {
+		jedisTemplate.execute(new RedisCallback<Object>() {
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				byte[] leaseKey = rawKey(leaseKeyPrefix + key);
+				connection.watch(leaseKey);
+				if (!Long.valueOf(token).equals(toToken(connection.get(leaseKey)))) {
+					connection.unwatch();
+					return null;
+				}
+				connection.multi();
+				connection.del(leaseKey);
+				// an aborted transaction means the lease has expired or changed hands, nothing to release then.
+				connection.exec();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Executes the write unless the lease of the key has been acquired by a later holder than the given token. The write
+	 * is queued in a transaction watching the lease, so it is discarded if the lease changes in between.
+	 *
+	 * @param write redis commands writing the loaded result, at least one, executed in a MULTI block, so their replies
+	 *              are not available to it.
+	 * @return false if the lease has been superseded and nothing was written.
+	 */
+	public boolean executeIfNotSuperseded(final String key, final long token, final RedisCallback<?> write) {
+		return (Boolean) jedisTemplate.execute(new RedisCallback<Boolean>() {
+			@Override
+			public Boolean doInRedis(RedisConnection connection) throws DataAccessException {
+				byte[] leaseKey = rawKey(leaseKeyPrefix + key);
+				connection.watch(leaseKey);
+				Long currentToken = toToken(connection.get(leaseKey));
+				if (currentToken != null && currentToken > token) {
+					connection.unwatch();
+					return false;
+				}
+				connection.multi();
+				write.doInRedis(connection);
+				// an aborted transaction replies nil, which some drivers turn into an empty list.
+				List<Object> replies = connection.exec();
+				return replies != null && !replies.isEmpty();
+			}
+		});
+	}
+
+	/**
+	 * Whether the lease of the key is held by any node.
+	 */
+	public boolean isHeld(final String key) {
+		return getToken(key) != null;
+	}
+
+	/**
+	 * Whether the lease of the key has been acquired by a later holder than the given token. The answer may be outdated
+	 * as soon as it is returned, use {@link #executeIfNotSuperseded} to fence a write.
+	 */
+	public boolean isSuperseded(String key, long token) {
+		Long currentToken = getToken(key);
+		return currentToken != null && currentToken > token;
+	}
+
+	public long getLeaseTimeInMillis() {
+		return leaseTimeInMillis;
+	}
+
+	private Long getToken(final String key) {
+		return (Long) jedisTemplate.execute(new RedisCallback<Long>() {
+			@Override
+			public Long doInRedis(RedisConnection connection) throws DataAccessException {
+				return toToken(connection.get(rawKey(leaseKeyPrefix + key)));
+			}
+		});
+	}
+
+	private byte[] rawKey(String key) {
+		return ((RedisSerializer<String>) jedisTemplate.getKeySerializer()).serialize(key);
+	}
+
+	private static byte[] rawValue(long value) {
+		return String.valueOf(value).getBytes(UTF_8);
+	}
+
+	private static Long toToken(byte[] value) {
+		if (value == null) {
+			return null;
+		}
+		String token = new String(value, UTF_8);
+		return StringUtils.isNumeric(token) ? Long.valueOf(token) : null;
+	}
+}
@@ -1,19 +1,32 @@
 package com.neway6655.cache;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.*;
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.util.Assert;
+import rx.Observable;
+import rx.Subscriber;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * RedisLoadingCache is aim to solve cache loading issues in highly concurrent situations, it is designed to avoid large
@@ -24,23 +37,43 @@ import java.util.concurrent.locks.Lock;
  * Cache loading issues contains two cases: cache data expired; cache service are unavailable, such as redis connection
  * broken: For the first case, the solution is to auto refresh cache data before it expired in the background. For the
  * second case, the solution is to limit the concurrent requests by refusing some requests, to protect the backend
- * service layer.
+ * service layer, the concurrency limit adapts to the backend's latency, and an optional circuit breaker stops loading
+ * from a failing backend. Optionally, the last good value of a key is kept in process and served for a grace period
+ * when redis is unavailable or the loading fails, and calls to redis fail fast for a retry interval after redis is found
+ * unavailable.
+ *
+ * Loadings run in a bounded refresh executor, which is owned by the cache unless a shared one is given, the cache should
+ * be closed when it is no longer used.
  *
  * @param <T>
  */
-public abstract class RedisLoadingCache<T extends CachedObject> {
+public abstract class RedisLoadingCache<T extends CachedObject> implements Closeable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(RedisLoadingCache.class);
 
-	private static final int ASYNC_REFRESH_TIMEOUT = 50;
+	private static final long DEFAULT_LOADING_TIMEOUT_IN_MILLIS = 1000;
 
-	private static final int LOCKERS = 32;
+	private static final long LEASE_POLLING_INTERVAL_IN_MILLIS = 20;
 
 	private static final int ASYNC_LOADING_THREADS = 5;
 
+	private static final int ASYNC_LOADING_QUEUE_CAPACITY = 10000;
+
+	private static final int SHUTDOWN_TIMEOUT_IN_SEC = 10;
+
 	private static final int DEFAULT_DIRECT_LOADING_THRESHOLD = 100;
 
-	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final long DEFAULT_LOADING_LATENCY_THRESHOLD_IN_MILLIS = 1000;
+
+	private static final long DEFAULT_REDIS_RETRY_INTERVAL_IN_MILLIS = 1000;
+
+	private static final int WRITE_GENERATION_STRIPES = 1024;
+
+	/**
+	 * Times out loadings waited by async callers, its tasks are short, so one thread is shared by all caches.
+	 */
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("cache-scheduler").setDaemon(true).build());
 
 	private RedisTemplate jedisTemplate;
 
@@ -56,9 +89,53 @@ public abstract class RedisLoadingCache<T extends CachedObject> {
 
 	private ExecutorService executorService;
 
-	private Striped<Lock> keyLocks = Striped.lazyWeakLock(LOCKERS);
+	private boolean sharedExecutorService;
+
+	private ListeningExecutorService readExecutorService;
+
+	private long loadingTimeoutInMillis = DEFAULT_LOADING_TIMEOUT_IN_MILLIS;
+
+	private ConcurrentMap<String, ListenableFuture<T>> loadingFutures = new ConcurrentHashMap<String, ListenableFuture<T>>();
+
+	// generations of the writes by put and invalidate, striped by key, which fence the loadings started before them.
+	private final AtomicLongArray writeGenerations = new AtomicLongArray(WRITE_GENERATION_STRIPES);
+
+	private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+	private CircuitBreaker circuitBreaker;
+
+	private StaleCache<T> staleCache;
+
+	private RedisHealthCheck redisHealthCheck = new RedisHealthCheck(DEFAULT_REDIS_RETRY_INTERVAL_IN_MILLIS,
+			TimeUnit.MILLISECONDS);
+
+	private NearCache<T> nearCache;
+
+	private HotKeyDetector hotKeyDetector;
+
+	private NearCache<T> hotKeyCache;
+
+	private NegativeCache negativeCache;
+
+	private KnownKeyFilter knownKeyFilter;
+
+	private InvalidationPublisher invalidationPublisher;
+
+	private InvalidationBus invalidationBus;
+
+	private String invalidationChannel;
+
+	private InvalidationBus.Listener invalidationListener;
+
+	private RedisLoadLease loadLease;
 
-	private RateLimiter rateLimiter = RateLimiter.create(directLoadingThreshold);
+	private CacheCodec codec = JacksonCacheCodec.json();
+
+	private double earlyRefreshBeta;
+
+	private long ttlJitterInMillis;
+
+	private CacheMetricsListener metricsListener = NoopCacheMetricsListener.INSTANCE;
 
 	public RedisLoadingCache(RedisTemplate redisTemplate, Class<T> cachedObjectClass, long refreshBeforeExpired,
 			int ttlInSec, long directLoadingThreshold) {
@@ -68,191 +145,1304 @@ public abstract class RedisLoadingCache<T extends CachedObject> {
 		this.refreshBeforeExpired = refreshBeforeExpired;
 		this.ttlInSec = ttlInSec;
 		this.directLoadingThreshold = directLoadingThreshold;
+		this.concurrencyLimiter = new AdaptiveConcurrencyLimiter(1, (int) directLoadingThreshold,
+				DEFAULT_LOADING_LATENCY_THRESHOLD_IN_MILLIS, TimeUnit.MILLISECONDS);
 
-		executorService = Executors.newFixedThreadPool(ASYNC_LOADING_THREADS,
-				new ThreadFactoryBuilder().setNameFormat("async-refresh-cache-" + name()).build());
+		// threads of the default executor are started on first loading, so it is cheap to be replaced.
+		executorService = RefreshExecutors.newBoundedExecutor("async-refresh-cache-" + name(), ASYNC_LOADING_THREADS,
+				ASYNC_LOADING_QUEUE_CAPACITY, RefreshExecutors.RejectionPolicy.ABORT);
 		listeningExecutorService = MoreExecutors.listeningDecorator(executorService);
 	}
 
 	public abstract T load(String key);
 
+	/**
+	 * Loads the value of the key without blocking the calling thread, it is used instead of {@link #load(String)} if
+	 * {@link #isAsyncLoading()}, unless the load lease is enabled, which needs a thread to wait for other nodes anyway.
+	 */
+	protected ListenableFuture<T> loadAsync(String key) {
+		return Futures.immediateFuture(load(key));
+	}
+
+	/**
+	 * Whether missed keys are loaded by {@link #loadAsync(String)}.
+	 */
+	protected boolean isAsyncLoading() {
+		return false;
+	}
+
+	/**
+	 * Loads values of many keys in one go, keys which could not be found should be absent from the returned map. By
+	 * default it loads the keys one by one, override it if the backend service supports batch loading.
+	 */
+	protected Map<String, T> loadAll(Collection<String> keys) {
+		Map<String, T> loaded = Maps.newHashMap();
+		for (String key : keys) {
+			T cachedObject = load(key);
+			if (cachedObject != null) {
+				loaded.put(key, cachedObject);
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Enables the in-process near cache tier, which serves hits of recently read keys without touching redis.
+	 */
+	protected void setNearCache(NearCache<T> nearCache) {
+		this.nearCache = nearCache;
+	}
+
+	/**
+	 * Enables hot key detection, keys found hot are pinned in the given in-process tier, which should be small and have
+	 * a short expireAfterWrite, so a hot key takes the load off its redis shard while staying almost fresh.
+	 */
+	protected void setHotKeyDetector(HotKeyDetector hotKeyDetector, NearCache<T> hotKeyCache) {
+		Assert.isTrue(hotKeyDetector == null == (hotKeyCache == null),
+				"Hot key detector and hot key cache should be set together.");
+		this.hotKeyDetector = hotKeyDetector;
+		this.hotKeyCache = hotKeyCache;
+	}
+
+	/**
+	 * Enables negative caching: a key which the loader found absent is marked by a tombstone in redis and in the given
+	 * negative cache for its ttl, so it is not loaded again until then.
+	 */
+	protected void setNegativeCache(NegativeCache negativeCache) {
+		this.negativeCache = negativeCache;
+	}
+
+	/**
+	 * Sets the filter of all keys which may exist, a key not in the filter is answered with null without touching redis
+	 * or the backend.
+	 */
+	protected void setKnownKeyFilter(KnownKeyFilter knownKeyFilter) {
+		this.knownKeyFilter = knownKeyFilter;
+	}
+
+	/**
+	 * Broadcasts invalidations by {@link #invalidate(String)} and {@link #put(String, CachedObject)} to other nodes of
+	 * the cache, and drops the keys invalidated by them from the in-process tiers. Invalidations are published in
+	 * batches collected in batchInterval.
+	 */
+	protected void setInvalidationBus(InvalidationBus invalidationBus, long batchInterval, TimeUnit timeUnit,
+			int maxBatchSize) {
+		Assert.notNull(invalidationBus, "Invalidation bus should not be null.");
+		Assert.isTrue(batchInterval > 0, "Invalidation batch interval must be a positive number.");
+		Assert.isTrue(maxBatchSize > 0, "Invalidation max batch size must be a positive number.");
+
+		final String sender = UUID.randomUUID().toString();
+		String channel = name() + ":invalidation";
+		InvalidationBus.Listener listener = new InvalidationBus.Listener() {
+			@Override
+			public void onMessage(InvalidationMessage message) {
+				if (sender.equals(message.getSender())) {
+					return;
+				}
+				for (String key : message.getKeys()) {
+					newWriteGeneration(key);
+					invalidateLocalTiers(key);
+				}
+			}
+		};
+		invalidationBus.subscribe(channel, listener);
+		this.invalidationBus = invalidationBus;
+		this.invalidationChannel = channel;
+		this.invalidationListener = listener;
+		this.invalidationPublisher = new InvalidationPublisher(invalidationBus, channel, sender,
+				timeUnit.toMillis(batchInterval), maxBatchSize);
+	}
+
+	/**
+	 * Sets how long a caller waits for a missed key to be loaded, before giving up with null.
+	 */
+	protected void setLoadingTimeout(long loadingTimeout, TimeUnit timeUnit) {
+		Assert.isTrue(loadingTimeout > 0, "Loading timeout must be a positive number.");
+		this.loadingTimeoutInMillis = timeUnit.toMillis(loadingTimeout);
+	}
+
+	/**
+	 * Enables the cross-node load lease, so only one node of the cluster loads a given key at a time.
+	 */
+	protected void setLoadLease(RedisLoadLease loadLease) {
+		this.loadLease = loadLease;
+	}
+
+	/**
+	 * Sets the codec of cached objects, json text by default.
+	 */
+	protected void setCodec(CacheCodec codec) {
+		Assert.notNull(codec, "Codec should not be null.");
+		this.codec = codec;
+	}
+
+	/**
+	 * Enables probabilistic early refresh, instead of refreshing every key exactly when it enters the refresh window,
+	 * each read refreshes the key a bit earlier by chance, see {@link #needRefresh(long, int)}. A larger beta refreshes
+	 * earlier, 1.0 is a good default.
+	 */
+	protected void setEarlyRefreshBeta(double earlyRefreshBeta) {
+		Assert.isTrue(earlyRefreshBeta >= 0, "Early refresh beta must not be negative.");
+		this.earlyRefreshBeta = earlyRefreshBeta;
+	}
+
+	/**
+	 * Adds a random extra ttl of up to ttlJitter to every written value, so values written at the same time do not expire
+	 * at the same time.
+	 */
+	protected void setTtlJitter(long ttlJitter, TimeUnit timeUnit) {
+		Assert.isTrue(ttlJitter >= 0, "Ttl jitter must not be negative.");
+		this.ttlJitterInMillis = timeUnit.toMillis(ttlJitter);
+	}
+
+	/**
+	 * Replaces the executor which loads and refreshes keys in background.
+	 *
+	 * @param shared whether the executor is shared with others, a shared executor is not shut down by {@link #close()}.
+	 *               It must not discard loadings silently, or callers waiting on them only return on loading timeout.
+	 */
+	protected void setRefreshExecutor(ExecutorService executorService, boolean shared) {
+		Assert.notNull(executorService, "Refresh executor should not be null.");
+		ExecutorService previous = this.executorService;
+		boolean previousShared = this.sharedExecutorService;
+
+		this.executorService = executorService;
+		this.sharedExecutorService = shared;
+		this.listeningExecutorService = MoreExecutors.listeningDecorator(executorService);
+
+		if (!previousShared) {
+			previous.shutdown();
+		}
+	}
+
+	/**
+	 * Sets the executor which reads redis for {@link #getAsync(String)}, by default reads run in the refresh executor.
+	 * The executor is not shut down by {@link #close()}.
+	 */
+	protected void setReadExecutor(ExecutorService readExecutorService) {
+		Assert.notNull(readExecutorService, "Read executor should not be null.");
+		this.readExecutorService = MoreExecutors.listeningDecorator(readExecutorService);
+	}
+
+	/**
+	 * Replaces the limiter of concurrent loadings, by default it allows up to directLoadingThreshold concurrent loadings,
+	 * and backs off when a loading takes more than 1 second.
+	 */
+	protected void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+		Assert.notNull(concurrencyLimiter, "Concurrency limiter should not be null.");
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	/**
+	 * Enables the circuit breaker around loadings, it is disabled by default.
+	 */
+	protected void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Enables serving the last good value of a key when redis is unavailable or the loading fails.
+	 */
+	protected void setStaleCache(StaleCache<T> staleCache) {
+		this.staleCache = staleCache;
+	}
+
+	/**
+	 * Replaces the redis health check, by default redis is skipped for 1 second after it is found unavailable.
+	 */
+	protected void setRedisHealthCheck(RedisHealthCheck redisHealthCheck) {
+		Assert.notNull(redisHealthCheck, "Redis health check should not be null.");
+		this.redisHealthCheck = redisHealthCheck;
+	}
+
+	/**
+	 * Sets the listener of cache events, events are ignored by default.
+	 */
+	protected void setMetricsListener(CacheMetricsListener metricsListener) {
+		Assert.notNull(metricsListener, "Metrics listener should not be null.");
+		this.metricsListener = metricsListener;
+	}
+
+	/**
+	 * Snapshot of the cache's counters and latencies.
+	 *
+	 * @return null unless the metrics listener is an {@link InMemoryCacheMetrics}.
+	 */
+	public CacheStats getStats() {
+		if (!(metricsListener instanceof InMemoryCacheMetrics)) {
+			return null;
+		}
+		return ((InMemoryCacheMetrics) metricsListener).snapshot(getRefreshQueueSize(), getLoadingKeyCount());
+	}
+
+	/**
+	 * Keys of the near cache, i.e. the recently read keys, which are worth warming up on the next startup by
+	 * {@link CacheWarmer}. Empty if the near cache is disabled.
+	 */
+	public Set<String> getNearCachedKeys() {
+		return nearCache == null ? Collections.<String>emptySet() : nearCache.keys();
+	}
+
+	/**
+	 * The current hot keys with their estimated counts of recent reads, the hottest first. Empty if hot key detection is
+	 * disabled.
+	 */
+	public Map<String, Integer> getHotKeys() {
+		return hotKeyDetector == null ? Collections.<String, Integer>emptyMap() : hotKeyDetector.getHotKeys();
+	}
+
+	/**
+	 * Number of loadings waiting in the refresh executor's queue, or -1 if the executor does not tell.
+	 */
+	public int getRefreshQueueSize() {
+		if (executorService instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor) executorService).getQueue().size();
+		}
+		return -1;
+	}
+
+	/**
+	 * Number of keys being loaded, including the queued ones. A key is queued at most once, since concurrent loadings of
+	 * the same key share one loading.
+	 */
+	public int getLoadingKeyCount() {
+		return loadingFutures.size();
+	}
+
+	/**
+	 * Shuts down the refresh executor unless it is shared, waiting for running loadings to finish, and unsubscribes from
+	 * the invalidation bus.
+	 */
+	@Override
+	public void close() {
+		if (invalidationPublisher != null) {
+			invalidationBus.unsubscribe(invalidationChannel, invalidationListener);
+			invalidationPublisher.close();
+		}
+		if (sharedExecutorService) {
+			return;
+		}
+
+		executorService.shutdown();
+		try {
+			if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT_IN_SEC, TimeUnit.SECONDS)) {
+				executorService.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executorService.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Removes the key from redis, and from the in-process tiers of this node and, if an invalidation bus is set, of all
+	 * other nodes, so the next read loads it again.
+	 */
+	public void invalidate(final String key) {
+		newWriteGeneration(key);
+		// a new read loads the key again rather than waiting for a loading started before.
+		loadingFutures.remove(key);
+		invalidateLocalTiers(key);
+		deleteValue(key);
+		if (invalidationPublisher != null) {
+			invalidationPublisher.publish(key);
+		}
+	}
+
+	/**
+	 * Writes the cached object of the key to redis and the in-process tiers of this node, and drops the copies in the
+	 * in-process tiers of other nodes if an invalidation bus is set, so they read the new one from redis.
+	 */
+	public void put(String key, T cachedObject) {
+		Assert.notNull(cachedObject, "Cached object should not be null, use invalidate instead.");
+		byte[] value = serialize(cachedObject, 0);
+		if (value == null) {
+			throw new IllegalArgumentException("Failed to serialize cached object of key: " + key);
+		}
+		newWriteGeneration(key);
+		loadingFutures.remove(key);
+		setValue(key, value);
+		putLocalTiers(key, cachedObject);
+		if (invalidationPublisher != null) {
+			invalidationPublisher.publish(key);
+		}
+	}
+
 	public T get(String key) {
-		T cachedObject = null;
+		T cachedObject = getLocal(key);
+		if (cachedObject != null || isKnownAbsent(key)) {
+			return cachedObject;
+		}
+
 		try {
-			String value = (String) jedisTemplate.boundValueOps(key).get();
-
-			if (StringUtils.isBlank(value)) {
-				// try to load async first.
-				asyncLoading(key);
-				waitShortly();
-				// try to get from redis after a short period, in case if cached was loaded.
-				value = (String) jedisTemplate.boundValueOps(key).get();
-
-				if (StringUtils.isBlank(value)) {
-					// then load sync.
-					cachedObject = protectedLoad(key);
-					if (cachedObject == null) {
-						return null;
-					}
+			byte[] value = getValue(key);
+
+			if (ArrayUtils.isEmpty(value)) {
+				metricsListener.onMiss();
+				// the first caller starts loading the key, concurrent callers wait on the same loading future.
+				return waitForLoading(key, asyncLoading(key, null));
+			}
+			if (CachedValueLayout.isTombstone(value)) {
+				readTombstone(key);
+				return null;
+			}
 
-					set(key, cachedObject);
-					return cachedObject;
+			cachedObject = readCachedValue(key, value);
+			if (cachedObject == null) {
+				// the value could not be decoded, e.g. written with another codec, reload it like getAll does.
+				return waitForLoading(key, asyncLoading(key, null));
+			}
+			return cachedObject;
+		} catch (RedisConnectionFailureException e) {
+			// serve the last good value if there is one, rather than loading it from the backend.
+			T staleObject = getStale(key);
+			if (staleObject != null) {
+				return staleObject;
+			}
+			LOG.warn("Cache service is unavailable: {}, try to load directly... ", e.getMessage());
+			return waitForLoading(key, asyncLoading(key, null));
+		}
+	}
+
+	/**
+	 * Gets the cached object of the key without blocking the caller, it works the same as {@link #get(String)}: the
+	 * future completes with null if the key could not be loaded in the loading timeout, it never fails.
+	 *
+	 * Redis is read in the read executor, a missed key is loaded in the refresh executor, and the future completes in
+	 * either of them, so callbacks added to the future with the direct executor should not block.
+	 */
+	public ListenableFuture<T> getAsync(final String key) {
+		T cachedObject = getLocal(key);
+		if (cachedObject != null || isKnownAbsent(key)) {
+			return Futures.immediateFuture(cachedObject);
+		}
+
+		ListenableFuture<byte[]> valueFuture;
+		try {
+			ListeningExecutorService executor = readExecutorService != null ? readExecutorService
+					: listeningExecutorService;
+			valueFuture = executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() {
+					return getValue(key);
 				}
+			});
+		} catch (RejectedExecutionException e) {
+			LOG.warn("Reading of key: {} is rejected by the read executor.", key);
+			return Futures.immediateFuture(getStale(key));
+		}
 
-				try {
-					cachedObject = MAPPER.readValue(value, cachedObjectClass);
-				} catch (IOException e) {
-					LOG.error("Error when read value for json: {}.", value, e);
-					return null;
+		ListenableFuture<T> cachedObjectFuture = Futures.transform(valueFuture, new AsyncFunction<byte[], T>() {
+			@Override
+			public ListenableFuture<T> apply(byte[] value) {
+				if (ArrayUtils.isEmpty(value)) {
+					metricsListener.onMiss();
+					return withLoadingTimeout(key, asyncLoading(key, null));
 				}
-				set(key, cachedObject);
-				return cachedObject;
+				if (CachedValueLayout.isTombstone(value)) {
+					readTombstone(key);
+					return Futures.immediateFuture(null);
+				}
+				T cachedObject = readCachedValue(key, value);
+				if (cachedObject == null) {
+					return withLoadingTimeout(key, asyncLoading(key, null));
+				}
+				return Futures.immediateFuture(cachedObject);
 			}
+		});
 
-			refreshCacheInBackgroundIfNeed(key, value);
-		} catch (RedisConnectionFailureException e) {
-			LOG.error("Cache service is unavailable with exception, try to load directly... ", e);
-			return protectedLoad(key);
+		return Futures.withFallback(cachedObjectFuture, new FutureFallback<T>() {
+			@Override
+			public ListenableFuture<T> create(Throwable t) {
+				T staleObject = getStale(key);
+				if (staleObject != null) {
+					return Futures.immediateFuture(staleObject);
+				}
+				if (t instanceof RedisConnectionFailureException) {
+					LOG.warn("Cache service is unavailable: {}, try to load directly... ", t.getMessage());
+					return withLoadingTimeout(key, asyncLoading(key, null));
+				}
+				LOG.error("Failed to get cached object of key: {}.", key, t);
+				return Futures.immediateFuture(null);
+			}
+		});
+	}
+
+	/**
+	 * Cold {@link Observable} of {@link #getAsync(String)}, the key is read on every subscription. It emits the cached
+	 * object then completes, or completes without emitting if the key could not be loaded.
+	 */
+	public Observable<T> getObservable(final String key) {
+		return Observable.create(new Observable.OnSubscribe<T>() {
+			@Override
+			public void call(final Subscriber<? super T> subscriber) {
+				Futures.addCallback(getAsync(key), new FutureCallback<T>() {
+					@Override
+					public void onSuccess(T result) {
+						if (subscriber.isUnsubscribed()) {
+							return;
+						}
+						if (result != null) {
+							subscriber.onNext(result);
+						}
+						subscriber.onCompleted();
+					}
+
+					@Override
+					public void onFailure(Throwable t) {
+						if (!subscriber.isUnsubscribed()) {
+							subscriber.onError(t);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Decodes a value read from redis, and refreshes it in background if needed.
+	 *
+	 * @return null if the value could not be decoded, the caller then reloads the key as a miss.
+	 */
+	private T readCachedValue(String key, byte[] value) {
+		// decide whether to refresh by the header, before paying for decoding the payload.
+		boolean needRefresh = needRefresh(CachedValueLayout.getExpiredTimeInMillis(value),
+				CachedValueLayout.getLoadTimeInMillis(value));
+		T cachedObject = deserialize(key, value);
+		if (cachedObject == null) {
+			metricsListener.onMiss();
+			return null;
 		}
 
+		metricsListener.onRedisHit();
+		putLocalTiers(key, cachedObject);
+		if (hotKeyDetector != null && hotKeyDetector.record(key)) {
+			hotKeyCache.put(key, cachedObject);
+		}
+		if (needRefresh) {
+			asyncLoading(key, cachedObject);
+		}
 		return cachedObject;
+	}
 
+	/**
+	 * Whether the key is known to be absent, by the known key filter or the negative cache.
+	 */
+	private boolean isKnownAbsent(String key) {
+		if (knownKeyFilter != null && !knownKeyFilter.mightContain(key)
+				|| negativeCache != null && negativeCache.contains(key)) {
+			metricsListener.onNegativeHit();
+			return true;
+		}
+		return false;
+	}
+
+	private void readTombstone(String key) {
+		metricsListener.onNegativeHit();
+		if (negativeCache != null) {
+			negativeCache.put(key);
+		}
 	}
 
-	private T protectedLoad(String key) {
-		if (rateLimiter.tryAcquire(100, TimeUnit.MILLISECONDS)) {
-			return load(key);
+	private void invalidateLocalTiers(String key) {
+		if (nearCache != null) {
+			nearCache.invalidate(key);
+		}
+		if (hotKeyCache != null) {
+			hotKeyCache.invalidate(key);
+		}
+		if (staleCache != null) {
+			staleCache.invalidate(key);
 		}
+		if (negativeCache != null) {
+			negativeCache.invalidate(key);
+		}
+	}
 
-		LOG.warn("Failed to load value directly due to the traffic exceeds threshold: {}.", directLoadingThreshold);
-		// if there are too much traffic which exceeds threshold, return null to protect the backend service.
-		return null;
+	/**
+	 * Looks the key up in the in-process tiers, the hot key tier first, then the near cache.
+	 */
+	private T getLocal(String key) {
+		T cachedObject = hotKeyCache == null ? null : hotKeyCache.get(key);
+		if (cachedObject != null) {
+			// keeps counting the reads of a pinned key, or it would cool down and be dropped while being read.
+			hotKeyDetector.record(key);
+		}
+		if (cachedObject == null && nearCache != null) {
+			cachedObject = nearCache.get(key);
+		}
+		if (cachedObject != null) {
+			metricsListener.onNearCacheHit();
+			refreshCacheInBackgroundIfNeed(key, cachedObject);
+		}
+		return cachedObject;
 	}
 
-	private void waitShortly() {
+	/**
+	 * Gets the cached objects of the given keys, all keys are read from redis in one MGET call, and all missed keys are
+	 * loaded by {@link #loadAll(Collection)} in one call, then written back to redis in one pipeline. Keys which could not
+	 * be loaded are absent from the returned map.
+	 */
+	public Map<String, T> getAll(Collection<String> keys) {
+		Map<String, T> result = Maps.newHashMap();
+		List<String> redisKeys = Lists.newArrayList();
+		for (String key : Sets.newLinkedHashSet(keys)) {
+			T cachedObject = getLocal(key);
+			if (cachedObject != null) {
+				result.put(key, cachedObject);
+			} else if (!isKnownAbsent(key)) {
+				redisKeys.add(key);
+			}
+		}
+
+		if (redisKeys.isEmpty()) {
+			return result;
+		}
+
+		List<String> missedKeys = Lists.newArrayList();
 		try {
-			Thread.sleep(ASYNC_REFRESH_TIMEOUT + ThreadLocalRandom.current().nextInt(1, ASYNC_REFRESH_TIMEOUT));
-		} catch (InterruptedException e) {
-			// ignore.
+			List<byte[]> values = getValues(redisKeys);
+			for (int i = 0; i < redisKeys.size(); i++) {
+				String key = redisKeys.get(i);
+				byte[] value = values.get(i);
+				if (ArrayUtils.isEmpty(value)) {
+					metricsListener.onMiss();
+					missedKeys.add(key);
+					continue;
+				}
+				if (CachedValueLayout.isTombstone(value)) {
+					readTombstone(key);
+					continue;
+				}
+
+				T cachedObject = readCachedValue(key, value);
+				if (cachedObject == null) {
+					missedKeys.add(key);
+					continue;
+				}
+				result.put(key, cachedObject);
+			}
+		} catch (RedisConnectionFailureException e) {
+			LOG.warn("Cache service is unavailable: {}, try to load all directly... ", e.getMessage());
+			List<String> keysToLoad = Lists.newArrayList();
+			for (String key : redisKeys) {
+				T staleObject = getStale(key);
+				if (staleObject != null) {
+					result.put(key, staleObject);
+				} else {
+					keysToLoad.add(key);
+				}
+			}
+			Map<String, T> loaded = loadAllOrNull(keysToLoad);
+			if (loaded != null) {
+				result.putAll(loaded);
+			}
+			return result;
+		}
+
+		if (missedKeys.isEmpty()) {
+			return result;
+		}
+
+		// keys which are being loaded by others are not loaded again, just wait for them.
+		Map<String, ListenableFuture<T>> loadingKeys = Maps.newHashMap();
+		List<String> keysToLoad = Lists.newArrayList();
+		for (String key : missedKeys) {
+			ListenableFuture<T> loadingFuture = loadingFutures.get(key);
+			if (loadingFuture != null) {
+				loadingKeys.put(key, loadingFuture);
+			} else {
+				keysToLoad.add(key);
+			}
+		}
+
+		if (!keysToLoad.isEmpty()) {
+			Map<String, Long> writeGenerations = Maps.newHashMap();
+			for (String key : keysToLoad) {
+				writeGenerations.put(key, getWriteGeneration(key));
+			}
+			long startTime = System.currentTimeMillis();
+			Map<String, T> loaded = loadAllOrNull(keysToLoad);
+			// keys are tombstoned only when the loader did run and did not return them.
+			if (loaded != null) {
+				try {
+					setAll(loaded, keysToLoad, (int) (System.currentTimeMillis() - startTime), writeGenerations);
+				} catch (RedisConnectionFailureException e) {
+					LOG.warn("Failed to write loaded values back to cache service: {}.", e.getMessage());
+				}
+				result.putAll(loaded);
+			}
+
+			for (String key : keysToLoad) {
+				T staleObject = loaded != null && loaded.containsKey(key) ? null : getStale(key);
+				if (staleObject != null) {
+					result.put(key, staleObject);
+				}
+			}
 		}
+
+		for (Map.Entry<String, ListenableFuture<T>> entry : loadingKeys.entrySet()) {
+			T cachedObject = waitForLoading(entry.getKey(), entry.getValue());
+			if (cachedObject != null) {
+				result.put(entry.getKey(), cachedObject);
+			}
+		}
+		return result;
 	}
 
-	private void refreshCacheInBackgroundIfNeed(String key, String value) {
-		T cachedObject = null;
+	/**
+	 * @return null if the loading is refused or fails, as opposed to a loading which finds none of the keys.
+	 */
+	private Map<String, T> loadAllOrNull(Collection<String> keys) {
 		try {
-			cachedObject = MAPPER.readValue(value, cachedObjectClass);
-		} catch (IOException e) {
-			LOG.error("Failed to deserialize cached object from json string: {}.", value, e);
-			return;
+			return protectedLoadAll(keys);
+		} catch (RuntimeException e) {
+			LOG.error("Failed to load values of keys: {}.", keys, e);
+			return null;
 		}
+	}
 
-		long remainingSec = cachedObject.getExpiredTime() - getCurrentTimeInSecond();
+	/**
+	 * @return null if the loading is refused.
+	 */
+	private Map<String, T> protectedLoadAll(Collection<String> keys) {
+		// a batch loading is one backend call, so it takes one permit only.
+		if (!acquireLoadingPermit()) {
+			return null;
+		}
 
-		if (remainingSec < refreshBeforeExpired) {
-			asyncLoading(key);
+		long startTime = System.nanoTime();
+		boolean success = false;
+		try {
+			Map<String, T> loaded = loadAll(keys);
+			success = true;
+			return loaded;
+		} finally {
+			releaseLoadingPermit(startTime, success);
 		}
 	}
 
-	private void set(String key, T cachedObject) {
-		cachedObject.setExpiredTime(getCurrentTimeInSecond() + ttlInSec);
-		String value = null;
+	private T protectedLoad(String key) throws LoadingCacheException {
+		// if there are too much traffic or the backend is failing, refuse the loading to protect the backend service.
+		if (!acquireLoadingPermit()) {
+			throw new LoadingCacheException("Loading of key: " + key + " is refused to protect the backend service.");
+		}
+
+		long startTime = System.nanoTime();
+		boolean success = false;
 		try {
-			value = MAPPER.writeValueAsString(cachedObject);
-		} catch (JsonProcessingException e) {
-			LOG.error("Failed to serialize object to json.", e);
+			T cachedObject = load(key);
+			success = true;
+			return cachedObject;
+		} finally {
+			releaseLoadingPermit(startTime, success);
+		}
+	}
+
+	private boolean acquireLoadingPermit() {
+		if (!concurrencyLimiter.tryAcquire()) {
+			metricsListener.onLoadRejected();
+			LOG.warn("Failed to load value directly due to the concurrent loadings exceeds limit: {}.",
+					concurrencyLimiter.getLimit());
+			return false;
+		}
+
+		if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+			concurrencyLimiter.cancel();
+			metricsListener.onLoadRejected();
+			LOG.warn("Failed to load value directly due to the circuit breaker is open.");
+			return false;
 		}
+		return true;
+	}
+
+	private void releaseLoadingPermit(long startTimeInNanos, boolean success) {
+		long latencyInNanos = System.nanoTime() - startTimeInNanos;
+		metricsListener.onLoad(latencyInNanos, success);
+		concurrencyLimiter.release(TimeUnit.NANOSECONDS.toMillis(latencyInNanos), success);
+		if (circuitBreaker != null) {
+			if (success) {
+				circuitBreaker.onSuccess();
+			} else {
+				circuitBreaker.onFailure();
+			}
+		}
+	}
+
+	/**
+	 * @return the loaded object, or the last good object of the key if the loading failed.
+	 */
+	private T waitForLoading(String key, ListenableFuture<T> loadingFuture) {
+		try {
+			return loadingFuture.get(loadingTimeoutInMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// the failure has been logged by the loading future's callback.
+		} catch (CancellationException e) {
+			LOG.warn("Loading of key: {} was cancelled.", key);
+		} catch (TimeoutException e) {
+			LOG.warn("Failed to load key: {} in {} milliseconds.", key, loadingTimeoutInMillis);
+		}
+		return getStale(key);
+	}
+
+	/**
+	 * The non-blocking counterpart of {@link #waitForLoading(String, ListenableFuture)}.
+	 */
+	private ListenableFuture<T> withLoadingTimeout(final String key, ListenableFuture<T> loadingFuture) {
+		final SettableFuture<T> result = SettableFuture.create();
+		final ScheduledFuture<?> timeout = SCHEDULER.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!result.isDone()) {
+					LOG.warn("Failed to load key: {} in {} milliseconds.", key, loadingTimeoutInMillis);
+					result.set(getStale(key));
+				}
+			}
+		}, loadingTimeoutInMillis, TimeUnit.MILLISECONDS);
+
+		Futures.addCallback(loadingFuture, new FutureCallback<T>() {
+			@Override
+			public void onSuccess(T cachedObject) {
+				timeout.cancel(false);
+				result.set(cachedObject);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				timeout.cancel(false);
+				if (t instanceof CancellationException) {
+					LOG.warn("Loading of key: {} was cancelled.", key);
+				}
+				// other failures have been logged by the loading future's callback.
+				result.set(getStale(key));
+			}
+		});
+		return result;
+	}
+
+	private T getStale(String key) {
+		T staleObject = staleCache == null ? null : staleCache.get(key);
+		if (staleObject != null) {
+			metricsListener.onStaleServed();
+		}
+		return staleObject;
+	}
+
+	private void refreshCacheInBackgroundIfNeed(String key, T cachedObject) {
+		if (needRefresh(TimeUnit.SECONDS.toMillis(cachedObject.getExpiredTime()), cachedObject.getLoadTimeInMillis())) {
+			asyncLoading(key, cachedObject);
+		}
+	}
+
+	/**
+	 * A value needs refreshing once it enters the refresh window, i.e. refreshBeforeExpired before its expired time.
+	 *
+	 * With early refresh enabled, it is the XFetch algorithm: the value is refreshed when
+	 * {@code now - loadTime * beta * ln(random) >= start of refresh window}, so the slower a value loads, the earlier and
+	 * more spread out its refreshing starts, rather than all keys written together hitting the window at the same second.
+	 *
+	 * Values written by earlier versions carry no expired time in the header, they are refreshed to the current layout.
+	 */
+	private boolean needRefresh(long expiredTimeInMillis, int loadTimeInMillis) {
+		long refreshTimeInMillis = expiredTimeInMillis - TimeUnit.SECONDS.toMillis(refreshBeforeExpired);
+		long now = System.currentTimeMillis();
+		if (earlyRefreshBeta > 0 && loadTimeInMillis > 0) {
+			double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+			now -= (long) (loadTimeInMillis * earlyRefreshBeta * Math.log(random));
+		}
+		return now >= refreshTimeInMillis;
+	}
+
+	private void set(String key, T cachedObject, int loadTimeInMillis, Long leaseToken) {
+		byte[] value = serialize(cachedObject, loadTimeInMillis);
 		if (value == null) {
 			return;
 		}
-		jedisTemplate.boundValueOps(key).set(value, ttlInSec, TimeUnit.SECONDS);
+		if (setValue(key, value, leaseToken)) {
+			putLocalTiers(key, cachedObject);
+		}
 	}
 
-	private void asyncLoading(final String key) {
-		// try to get refreshLock
-		Lock refreshLock = keyLocks.get(key);
-
-		if (refreshLock == null) {
+	/**
+	 * Marks the key absent by a tombstone, if negative caching is enabled.
+	 */
+	private void setAbsent(String key, Long leaseToken) {
+		if (negativeCache == null) {
 			return;
 		}
+		byte[] tombstone = CachedValueLayout.tombstone(System.currentTimeMillis() + negativeCache.getTtlInMillis());
+		if (setValue(key, tombstone, leaseToken)) {
+			negativeCache.put(key);
+		}
+	}
+
+	/**
+	 * @param loadedKeys       keys which were loaded, the ones absent from cachedObjects are marked absent by tombstones
+	 *                         if negative caching is enabled.
+	 * @param writeGenerations write generations of the loaded keys when the loading started, see {@link #writeLoaded}.
+	 */
+	private void setAll(Map<String, T> cachedObjects, Collection<String> loadedKeys, int loadTimeInMillis,
+			Map<String, Long> writeGenerations) {
+		Map<String, byte[]> values = Maps.newHashMap();
+		for (Map.Entry<String, T> entry : cachedObjects.entrySet()) {
+			if (isWrittenSince(entry.getKey(), writeGenerations)) {
+				continue;
+			}
+			byte[] value = serialize(entry.getValue(), loadTimeInMillis);
+			if (value != null) {
+				values.put(entry.getKey(), value);
+				putLocalTiers(entry.getKey(), entry.getValue());
+			}
+		}
 
-		boolean acquiredLock = refreshLock.tryLock();
+		if (negativeCache != null) {
+			byte[] tombstone = CachedValueLayout.tombstone(System.currentTimeMillis() + negativeCache.getTtlInMillis());
+			for (String key : loadedKeys) {
+				if (!cachedObjects.containsKey(key) && !isWrittenSince(key, writeGenerations)) {
+					values.put(key, tombstone);
+					negativeCache.put(key);
+				}
+			}
+		}
 
-		// if not acquired refreshLock, then do not load the key because it is loading by others.
-		if (!acquiredLock) {
-			return;
+		if (!values.isEmpty()) {
+			setValues(values);
+		}
+		for (String key : values.keySet()) {
+			dropIfOverwritten(key, writeGenerations.get(key));
+		}
+	}
+
+	private T deserialize(String key, byte[] value) {
+		int offset = CachedValueLayout.getPayloadOffset(value);
+		long startTime = System.nanoTime();
+		try {
+			T cachedObject = codec.decode(value, offset, value.length - offset, cachedObjectClass);
+			metricsListener.onDecode(System.nanoTime() - startTime, true);
+			if (cachedObject != null) {
+				cachedObject.setLoadTimeInMillis(CachedValueLayout.getLoadTimeInMillis(value));
+			}
+			return cachedObject;
+		} catch (IOException e) {
+			metricsListener.onDecode(System.nanoTime() - startTime, false);
+			LOG.error("Failed to deserialize cached object of key: {}.", key, e);
+			return null;
+		}
+	}
+
+	private byte[] serialize(T cachedObject, int loadTimeInMillis) {
+		long expiredTimeInMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlInSec);
+		if (ttlJitterInMillis > 0) {
+			expiredTimeInMillis += ThreadLocalRandom.current().nextLong(ttlJitterInMillis + 1);
+		}
+		cachedObject.setExpiredTime(TimeUnit.MILLISECONDS.toSeconds(expiredTimeInMillis));
+		cachedObject.setLoadTimeInMillis(loadTimeInMillis);
+		long startTime = System.nanoTime();
+		try {
+			byte[] payload = codec.encode(cachedObject);
+			metricsListener.onEncode(System.nanoTime() - startTime, true);
+			return CachedValueLayout.wrap(expiredTimeInMillis, loadTimeInMillis, payload);
+		} catch (IOException e) {
+			metricsListener.onEncode(System.nanoTime() - startTime, false);
+			LOG.error("Failed to serialize cached object.", e);
+			return null;
+		}
+	}
+
+	private byte[] getValue(final String key) {
+		return executeRedis(new RedisCallback<byte[]>() {
+			@Override
+			public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
+				return currentVersionOrNull(connection.get(rawKey(key)));
+			}
+		});
+	}
+
+	private List<byte[]> getValues(final List<String> keys) {
+		return executeRedis(new RedisCallback<List<byte[]>>() {
+			@Override
+			public List<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
+				byte[][] rawKeys = new byte[keys.size()][];
+				for (int i = 0; i < rawKeys.length; i++) {
+					rawKeys[i] = rawKey(keys.get(i));
+				}
+				List<byte[]> values = Lists.newArrayListWithCapacity(rawKeys.length);
+				for (byte[] value : connection.mGet(rawKeys)) {
+					values.add(currentVersionOrNull(value));
+				}
+				return values;
+			}
+		});
+	}
+
+	/**
+	 * A value written under another version of the layout is read as a miss, so that it is reloaded and rewritten.
+	 */
+	private static byte[] currentVersionOrNull(byte[] value) {
+		return value != null && CachedValueLayout.hasOtherVersion(value) ? null : value;
+	}
+
+	private void setValue(final String key, final byte[] value) {
+		executeRedis(new RedisCallback<Object>() {
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				connection.pSetEx(rawKey(key), getTtlInMillis(value), value);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Writes a value loaded under the load lease of the given token, unless the lease has been superseded.
+	 *
+	 * @param leaseToken null if the value was not loaded under a lease, it is written unconditionally then.
+	 * @return false if the lease has been superseded and the value was not written.
+	 */
+	private boolean setValue(final String key, final byte[] value, Long leaseToken) {
+		if (leaseToken == null) {
+			setValue(key, value);
+			return true;
+		}
+
+		boolean written = loadLease.executeIfNotSuperseded(key, leaseToken, new RedisCallback<Object>() {
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				connection.pSetEx(rawKey(key), getTtlInMillis(value), value);
+				return null;
+			}
+		});
+		if (!written) {
+			// the lease has expired and been taken by another node, which will write a fresher value.
+			LOG.warn("Load lease of key: {} has been superseded, skip writing the loaded value.", key);
+		}
+		return written;
+	}
+
+	private void deleteValue(final String key) {
+		executeRedis(new RedisCallback<Object>() {
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				return connection.del(rawKey(key));
+			}
+		});
+	}
+
+	private void setValues(final Map<String, byte[]> values) {
+		executeRedis(new RedisCallback<Object>() {
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				// write all values back in one pipeline on this connection, each one is a SET with PX option.
+				connection.openPipeline();
+				for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+					connection.pSetEx(rawKey(entry.getKey()), getTtlInMillis(entry.getValue()), entry.getValue());
+				}
+				return connection.closePipeline();
+			}
+		});
+	}
+
+	/**
+	 * Calls redis unless it is known to be unavailable, in which case it fails fast without waiting for a connection.
+	 */
+	private <R> R executeRedis(RedisCallback<R> callback) {
+		if (!redisHealthCheck.isAvailable()) {
+			metricsListener.onRedisCall(0, false);
+			throw new RedisConnectionFailureException("Cache service is unavailable, skip it until next retry.");
+		}
+
+		long startTime = System.nanoTime();
+		boolean success = false;
+		try {
+			R result = (R) jedisTemplate.execute(callback);
+			redisHealthCheck.markAvailable();
+			success = true;
+			return result;
+		} catch (RedisConnectionFailureException e) {
+			redisHealthCheck.markUnavailable(e);
+			throw e;
+		} finally {
+			metricsListener.onRedisCall(System.nanoTime() - startTime, success);
+		}
+	}
+
+	/**
+	 * Redis ttl of a value follows the expired time in its header, which may carry a ttl jitter.
+	 */
+	private static long getTtlInMillis(byte[] value) {
+		return Math.max(1, CachedValueLayout.getExpiredTimeInMillis(value) - System.currentTimeMillis());
+	}
+
+	private byte[] rawKey(String key) {
+		return ((RedisSerializer<String>) jedisTemplate.getKeySerializer()).serialize(key);
+	}
+
+	private void putLocalTiers(String key, T cachedObject) {
+		if (nearCache != null) {
+			nearCache.put(key, cachedObject);
+		}
+		if (staleCache != null) {
+			staleCache.put(key, cachedObject);
+		}
+		if (negativeCache != null) {
+			negativeCache.invalidate(key);
+		}
+		// keeps the pinned copy of a hot key up to date with its refreshing.
+		if (hotKeyCache != null && hotKeyDetector.isHot(key)) {
+			hotKeyCache.put(key, cachedObject);
+		}
+	}
+
+	/**
+	 * Loads the key in background, if the key is being loaded already, the in-flight loading future is returned instead
+	 * of starting another one, so there is at most one loading of a key at any time in this JVM.
+	 *
+	 * @param staleObject the currently cached object when refreshing, it is kept being served if the key is being loaded
+	 *                    by another node, null if the key is missed.
+	 */
+	private ListenableFuture<T> asyncLoading(final String key, T staleObject) {
+		final ListenableFuture<T> loadingTask = isAsyncLoading() && loadLease == null ? SettableFuture.<T>create()
+				: ListenableFutureTask.create(new AsyncRefreshCacheTask(key, staleObject));
+		ListenableFuture<T> loadingFuture = loadingFutures.putIfAbsent(key, loadingTask);
+		// a finished loading may not have been removed by its callback yet, it should not be reused by a new loading.
+		while (loadingFuture != null) {
+			if (!loadingFuture.isDone()) {
+				return loadingFuture;
+			}
+			if (loadingFutures.replace(key, loadingFuture, loadingTask)) {
+				break;
+			}
+			loadingFuture = loadingFutures.putIfAbsent(key, loadingTask);
+		}
+		if (staleObject != null) {
+			metricsListener.onRefreshTriggered();
 		}
 
-		// if acquired refreshLock, then refresh the key's value.
 		LOG.debug("Async loading cache of key: {}.", key);
+		Futures.addCallback(loadingTask, new FutureCallback<T>() {
+			@Override
+			public void onSuccess(T result) {
+				loadingFutures.remove(key, loadingTask);
+				LOG.debug("Refreshed Successfully for key: " + key);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				loadingFutures.remove(key, loadingTask);
+				if (t instanceof LoadingCacheException && t.getCause() == null) {
+					LOG.warn(t.getMessage());
+				} else if (!(t instanceof CancellationException)) {
+					LOG.error("Failed to retrieve cached data.", t);
+				}
+			}
+		});
+
+		if (loadingTask instanceof SettableFuture) {
+			startAsyncLoading(key, (SettableFuture<T>) loadingTask);
+			return loadingTask;
+		}
 
 		try {
-			ListenableFuture<T> resultFuture = listeningExecutorService.submit(new AsyncRefreshCacheTask(jedisTemplate,
-					key, ttlInSec));
-			CheckedFuture<T, Exception> checkedResultFuture = Futures.makeChecked(resultFuture,
-					new Function<Exception, Exception>() {
+			listeningExecutorService.execute((Runnable) loadingTask);
+		} catch (RejectedExecutionException e) {
+			metricsListener.onLoadRejected();
+			LOG.warn("Loading of key: {} is rejected by the refresh executor.", key);
+			loadingTask.cancel(false);
+		}
+		return loadingTask;
+	}
+
+	/**
+	 * Loads the key by {@link #loadAsync(String)} without holding a thread while loading. The result completes as soon
+	 * as the key is loaded, and it is written back to redis in the refresh executor, since writing blocks.
+	 */
+	private void startAsyncLoading(final String key, final SettableFuture<T> result) {
+		if (!acquireLoadingPermit()) {
+			result.setException(new LoadingCacheException("Loading of key: " + key
+					+ " is refused to protect the backend service."));
+			return;
+		}
+
+		final long writeGeneration = getWriteGeneration(key);
+		final long startTime = System.nanoTime();
+		ListenableFuture<T> loadingFuture;
+		try {
+			loadingFuture = loadAsync(key);
+		} catch (RuntimeException e) {
+			releaseLoadingPermit(startTime, false);
+			result.setException(new LoadingCacheException("Error occurred when loading key: " + key, e));
+			return;
+		}
+
+		Futures.addCallback(loadingFuture, new FutureCallback<T>() {
+			@Override
+			public void onSuccess(final T cachedObject) {
+				releaseLoadingPermit(startTime, true);
+				final int loadTimeInMillis = (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+				result.set(cachedObject);
+				try {
+					listeningExecutorService.execute(new Runnable() {
 						@Override
-						public Exception apply(Exception input) {
-							return new LoadingCacheException("Error occurred when loading key: " + key, input);
+						public void run() {
+							writeLoaded(key, cachedObject, loadTimeInMillis, null, writeGeneration);
 						}
 					});
-			Futures.addCallback(checkedResultFuture, new FutureCallback<T>() {
-				@Override
-				public void onSuccess(T result) {
-					set(key, result);
-					LOG.debug("Refreshed Successfully for key: " + key);
+				} catch (RejectedExecutionException e) {
+					LOG.warn("Writing loaded value of key: {} is rejected by the refresh executor.", key);
 				}
+			}
 
-				@Override
-				public void onFailure(Throwable t) {
-					LOG.error("Failed to retrieve cached data.", t);
-				}
-			});
-		} finally {
-			refreshLock.unlock();
+			@Override
+			public void onFailure(Throwable t) {
+				releaseLoadingPermit(startTime, false);
+				result.setException(new LoadingCacheException("Error occurred when loading key: " + key, t));
+			}
+		});
+	}
+
+	/**
+	 * Writes a loaded object back to redis and the local tiers, or a tombstone if the key is absent.
+	 *
+	 * @param leaseToken      token of the load lease the object was loaded under, which fences the write, or null.
+	 * @param writeGeneration write generation of the key when the loading started, the loaded object is not left behind
+	 *                        if the key has been put or invalidated since.
+	 */
+	private void writeLoaded(String key, T cachedObject, int loadTimeInMillis, Long leaseToken, long writeGeneration) {
+		if (getWriteGeneration(key) != writeGeneration) {
+			LOG.debug("Key: {} has been written since its loading started, skip writing the loaded value.", key);
+			return;
 		}
+		try {
+			if (cachedObject == null) {
+				setAbsent(key, leaseToken);
+			} else {
+				set(key, cachedObject, loadTimeInMillis, leaseToken);
+			}
+			dropIfOverwritten(key, writeGeneration);
+		} catch (RedisConnectionFailureException e) {
+			LOG.warn("Failed to write loaded value of key: {} back to cache service: {}.", key, e.getMessage());
+		}
+	}
+
+	/**
+	 * Generation of the writes by {@link #put(String, CachedObject)} and {@link #invalidate(String)} to the key, or to
+	 * another key of its stripe. A loading takes it when it starts, see {@link #writeLoaded}.
+	 */
+	private long getWriteGeneration(String key) {
+		return writeGenerations.get(key.hashCode() & (WRITE_GENERATION_STRIPES - 1));
+	}
 
-		return;
+	/**
+	 * @return true if the key has been written since the given generations were taken, or was not loaded with them.
+	 */
+	private boolean isWrittenSince(String key, Map<String, Long> writeGenerations) {
+		Long writeGeneration = writeGenerations.get(key);
+		return writeGeneration == null || getWriteGeneration(key) != writeGeneration;
 	}
 
-	private static Long getCurrentTimeInSecond() {
-		return System.currentTimeMillis() / 1000;
+	private void newWriteGeneration(String key) {
+		writeGenerations.incrementAndGet(key.hashCode() & (WRITE_GENERATION_STRIPES - 1));
+	}
+
+	/**
+	 * Drops the value just written by a loading if the key has been put or invalidated in the meantime, whose write may
+	 * have landed before the loaded one, so the next read loads the key again rather than reading the older value.
+	 */
+	private void dropIfOverwritten(String key, long writeGeneration) {
+		if (getWriteGeneration(key) == writeGeneration) {
+			return;
+		}
+		LOG.debug("Key: {} has been written while writing its loaded value, drop it.", key);
+		invalidateLocalTiers(key);
+		deleteValue(key);
 	}
 
 	protected abstract String name();
 
 	private class AsyncRefreshCacheTask implements Callable<T> {
 
-		private RedisTemplate jedisTemplate;
-
 		private String key;
 
-		private int ttlInSec;
+		private T staleObject;
 
-		public AsyncRefreshCacheTask(RedisTemplate jedisTemplate, String key, int ttlInSec) {
-			this.jedisTemplate = jedisTemplate;
+		// taken when the loading is requested, a write to the key while it waits in the queue fences it as well.
+		private long writeGeneration;
+
+		public AsyncRefreshCacheTask(String key, T staleObject) {
 			this.key = key;
-			this.ttlInSec = ttlInSec;
+			this.staleObject = staleObject;
+			this.writeGeneration = getWriteGeneration(key);
 		}
 
 		@Override
 		public T call() throws Exception {
 			Assert.hasText(key, "Key should not be empty.");
 
-			T cachedObject = null;
+			Long leaseToken = null;
+			if (loadLease != null && !redisHealthCheck.isMarkedUnavailable()) {
+				try {
+					leaseToken = loadLease.tryAcquire(key);
+					if (leaseToken == null) {
+						// the key is being loaded by another node, keep serving the stale object or wait for it.
+						return staleObject != null ? staleObject : waitForLeaseHolder();
+					}
+				} catch (RedisConnectionFailureException e) {
+					LOG.warn("Failed to acquire load lease of key: {}, load it without lease.", key);
+				}
+			}
+
 			try {
-				cachedObject = protectedLoad(key);
-				cachedObject.setExpiredTime(getCurrentTimeInSecond() + ttlInSec);
-				String value = MAPPER.writeValueAsString(cachedObject);
-				if (value == null) {
-					return null;
+				return loadAndSet(leaseToken);
+			} finally {
+				if (leaseToken != null) {
+					releaseLease(leaseToken);
 				}
-				jedisTemplate.boundValueOps(key).set(value, ttlInSec, TimeUnit.SECONDS);
+			}
+		}
+
+		private T loadAndSet(Long leaseToken) throws LoadingCacheException {
+			T cachedObject;
+			long startTime = System.currentTimeMillis();
+			try {
+				cachedObject = protectedLoad(key);
+			} catch (LoadingCacheException e) {
+				throw e;
 			} catch (Exception e) {
-				LOG.error("Failed to async load cached key: {}.", key, e);
+				throw new LoadingCacheException("Error occurred when loading key: " + key, e);
+			}
+			if (cachedObject == null && negativeCache == null) {
+				return null;
 			}
 
+			writeLoaded(key, cachedObject, (int) (System.currentTimeMillis() - startTime), leaseToken, writeGeneration);
 			return cachedObject;
 		}
 
+		private T waitForLeaseHolder() throws InterruptedException {
+			long deadline = System.currentTimeMillis()
+					+ Math.min(loadingTimeoutInMillis, loadLease.getLeaseTimeInMillis());
+			while (loadLease.isHeld(key) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(LEASE_POLLING_INTERVAL_IN_MILLIS);
+			}
+
+			byte[] value = getValue(key);
+			if (ArrayUtils.isEmpty(value) || CachedValueLayout.isTombstone(value)) {
+				return null;
+			}
+			T cachedObject = deserialize(key, value);
+			if (cachedObject != null) {
+				putLocalTiers(key, cachedObject);
+			}
+			return cachedObject;
+		}
+
+		private void releaseLease(long leaseToken) {
+			try {
+				loadLease.release(key, leaseToken);
+			} catch (RedisConnectionFailureException e) {
+				LOG.warn("Failed to release load lease of key: {}, it will expire by itself.", key);
+			}
+		}
 	}
 }
@@ -1,9 +1,13 @@
 package com.neway6655.cache;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.util.Assert;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -13,6 +17,14 @@ public class RedisLoadingCacheBuilder<T extends CachedObject> {
 
 	private static final int DEFAULT_DIRECT_LOADING_THRESHOLD = 100;
 
+	private static final int DEFAULT_REFRESH_THREADS = 5;
+
+	private static final int DEFAULT_REFRESH_QUEUE_CAPACITY = 10000;
+
+	private static final long DEFAULT_INVALIDATION_BATCH_INTERVAL_IN_MILLIS = 10;
+
+	private static final int DEFAULT_INVALIDATION_MAX_BATCH_SIZE = 500;
+
 	private RedisTemplate jedisTemplate;
 
 	private Class<T> cachedObjectClass;
@@ -25,46 +37,365 @@ public class RedisLoadingCacheBuilder<T extends CachedObject> {
 
 	private String name;
 
+	private long loadingTimeout;
+
+	private long nearCacheMaximumSize;
+
+	private long loadLeaseTime;
+
+	private CacheCodec codec;
+
+	private int compressionThreshold = -1;
+
+	private double earlyRefreshBeta;
+
+	private long ttlJitter;
+
+	private int refreshThreads = DEFAULT_REFRESH_THREADS;
+
+	private int refreshQueueCapacity = DEFAULT_REFRESH_QUEUE_CAPACITY;
+
+	private RefreshExecutors.RejectionPolicy refreshRejectionPolicy = RefreshExecutors.RejectionPolicy.ABORT;
+
+	private ExecutorService refreshExecutor;
+
+	private ExecutorService readExecutor;
+
+	private int minLoadingConcurrency;
+
+	private long loadingLatencyThreshold;
+
+	private int circuitBreakerFailureThreshold;
+
+	private long circuitBreakerOpenDuration;
+
+	private long nearCacheExpireAfterWrite;
+
+	private long staleCacheMaximumSize;
+
+	private long staleGracePeriod;
+
+	private long redisRetryInterval;
+
+	private CacheMetricsListener metricsListener;
+
+	private long negativeTtl;
+
+	private long negativeCacheMaximumSize;
+
+	private KnownKeyFilter knownKeyFilter;
+
+	private InvalidationBus invalidationBus;
+
+	private long invalidationBatchInterval = DEFAULT_INVALIDATION_BATCH_INTERVAL_IN_MILLIS;
+
+	private int invalidationMaxBatchSize = DEFAULT_INVALIDATION_MAX_BATCH_SIZE;
+
+	private int hotKeyCount;
+
+	private int hotKeyThreshold;
+
+	private long hotKeyExpireAfterWrite;
+
 	private RedisLoadingCacheBuilder(RedisTemplate jedisTemplate, Class<T> cachedObjectClass) {
 		this.jedisTemplate = jedisTemplate;
 		this.cachedObjectClass = cachedObjectClass;
 	}
 
-	public static RedisLoadingCacheBuilder newBuilder(RedisTemplate jedisCluster, Class cachedObjectClass) {
-		return new RedisLoadingCacheBuilder(jedisCluster, cachedObjectClass);
+	public static <T extends CachedObject> RedisLoadingCacheBuilder<T> newBuilder(RedisTemplate jedisCluster,
+			Class<T> cachedObjectClass) {
+		return new RedisLoadingCacheBuilder<T>(jedisCluster, cachedObjectClass);
 	}
 
-	public RedisLoadingCacheBuilder refreshBeforeExpired(long period, TimeUnit timeUnit) {
+	public RedisLoadingCacheBuilder<T> refreshBeforeExpired(long period, TimeUnit timeUnit) {
 		this.refreshBeforeExpired = timeUnit.toSeconds(period);
 		return this;
 	}
 
-	public RedisLoadingCacheBuilder expired(long duration, TimeUnit timeUnit) {
+	public RedisLoadingCacheBuilder<T> expired(long duration, TimeUnit timeUnit) {
 		this.ttl = (int) timeUnit.toSeconds(duration);
 		return this;
 	}
 
-	public RedisLoadingCacheBuilder loadingThreshold(long directLoadingThreshold) {
+	/**
+	 * Max number of concurrent loadings hitting the backend service, 100 by default.
+	 */
+	public RedisLoadingCacheBuilder<T> loadingThreshold(long directLoadingThreshold) {
 		this.directLoadingThreshold = directLoadingThreshold;
 		return this;
 	}
 
-	public RedisLoadingCacheBuilder name(String name) {
+	public RedisLoadingCacheBuilder<T> name(String name) {
 		this.name = name;
 		return this;
 	}
 
-	public RedisLoadingCache build(final CacheLoader loader) {
+	/**
+	 * How long a caller waits for a missed key to be loaded, before giving up with null.
+	 */
+	public RedisLoadingCacheBuilder<T> loadingTimeout(long timeout, TimeUnit timeUnit) {
+		Assert.isTrue(timeout > 0, "Loading timeout must be a positive number.");
+		this.loadingTimeout = timeUnit.toMillis(timeout);
+		return this;
+	}
+
+	/**
+	 * Enables the in-process near cache tier, it holds at most maximumSize objects, each for at most expireAfterWrite.
+	 */
+	public RedisLoadingCacheBuilder<T> nearCache(long maximumSize, long expireAfterWrite, TimeUnit timeUnit) {
+		Assert.isTrue(maximumSize > 0, "Near cache maximum size must be a positive number.");
+		this.nearCacheMaximumSize = maximumSize;
+		this.nearCacheExpireAfterWrite = timeUnit.toMillis(expireAfterWrite);
+		return this;
+	}
+
+	/**
+	 * Enables the cross-node load lease, so only one node of the cluster loads a given key at a time, the others keep
+	 * serving the stale value or wait for the lease holder. A lease expires after leaseTime in case its holder crashed.
+	 */
+	public RedisLoadingCacheBuilder<T> distributedLoading(long leaseTime, TimeUnit timeUnit) {
+		Assert.isTrue(leaseTime > 0, "Lease time must be a positive number.");
+		this.loadLeaseTime = timeUnit.toMillis(leaseTime);
+		return this;
+	}
+
+	/**
+	 * Sets the codec of cached objects, e.g. {@link JacksonCacheCodec#smile()}, json text by default.
+	 */
+	public RedisLoadingCacheBuilder<T> codec(CacheCodec codec) {
+		Assert.notNull(codec, "Codec should not be null.");
+		this.codec = codec;
+		return this;
+	}
+
+	/**
+	 * Compresses encoded objects larger than thresholdInBytes.
+	 */
+	public RedisLoadingCacheBuilder<T> compressAbove(int thresholdInBytes) {
+		Assert.isTrue(thresholdInBytes >= 0, "Compression threshold must not be negative.");
+		this.compressionThreshold = thresholdInBytes;
+		return this;
+	}
+
+	/**
+	 * Enables probabilistic early refresh, keys are refreshed a bit before entering the refresh window by chance,
+	 * proportional to how long they took to load and to beta, 1.0 is a good default.
+	 */
+	public RedisLoadingCacheBuilder<T> earlyRefresh(double beta) {
+		Assert.isTrue(beta > 0, "Early refresh beta must be a positive number.");
+		this.earlyRefreshBeta = beta;
+		return this;
+	}
+
+	/**
+	 * Adds a random extra ttl of up to jitter to every written value.
+	 */
+	public RedisLoadingCacheBuilder<T> ttlJitter(long jitter, TimeUnit timeUnit) {
+		Assert.isTrue(jitter >= 0, "Ttl jitter must not be negative.");
+		this.ttlJitter = timeUnit.toMillis(jitter);
+		return this;
+	}
+
+	/**
+	 * Number of threads loading keys in background, 5 by default.
+	 */
+	public RedisLoadingCacheBuilder<T> refreshThreads(int threads) {
+		Assert.isTrue(threads > 0, "Refresh threads must be a positive number.");
+		this.refreshThreads = threads;
+		return this;
+	}
+
+	/**
+	 * How many loadings may wait for a refresh thread, 10000 by default, see {@link #refreshRejectionPolicy} for what
+	 * happens when the queue is full.
+	 */
+	public RedisLoadingCacheBuilder<T> refreshQueueCapacity(int queueCapacity) {
+		Assert.isTrue(queueCapacity > 0, "Refresh queue capacity must be a positive number.");
+		this.refreshQueueCapacity = queueCapacity;
+		return this;
+	}
+
+	public RedisLoadingCacheBuilder<T> refreshRejectionPolicy(RefreshExecutors.RejectionPolicy rejectionPolicy) {
+		Assert.notNull(rejectionPolicy, "Rejection policy should not be null.");
+		this.refreshRejectionPolicy = rejectionPolicy;
+		return this;
+	}
+
+	/**
+	 * Loads keys in the given executor instead of one owned by the cache, so one pool can be shared by many caches, e.g.
+	 * one created by {@link RefreshExecutors#newBoundedExecutor}. A shared executor is not shut down when the cache is
+	 * closed, and the refresh threads, queue capacity and rejection policy settings are ignored.
+	 */
+	public RedisLoadingCacheBuilder<T> refreshExecutor(ExecutorService executor) {
+		Assert.notNull(executor, "Refresh executor should not be null.");
+		this.refreshExecutor = executor;
+		return this;
+	}
+
+	/**
+	 * Uses the given executor to read redis for {@link RedisLoadingCache#getAsync(String)} instead of the refresh
+	 * executor, so async reads are not held up by loadings, it is not shut down by {@link RedisLoadingCache#close()}.
+	 */
+	public RedisLoadingCacheBuilder<T> readExecutor(ExecutorService executor) {
+		Assert.notNull(executor, "Read executor should not be null.");
+		this.readExecutor = executor;
+		return this;
+	}
+
+	/**
+	 * Adapts the limit of concurrent loadings to the backend's latency: it grows towards the loading threshold while
+	 * loadings finish within latencyThreshold, and shrinks towards minConcurrency when they are slower or fail.
+	 */
+	public RedisLoadingCacheBuilder<T> adaptiveLoading(int minConcurrency, long latencyThreshold, TimeUnit timeUnit) {
+		Assert.isTrue(minConcurrency > 0, "Min loading concurrency must be a positive number.");
+		Assert.isTrue(latencyThreshold > 0, "Loading latency threshold must be a positive number.");
+		this.minLoadingConcurrency = minConcurrency;
+		this.loadingLatencyThreshold = timeUnit.toMillis(latencyThreshold);
+		return this;
+	}
+
+	/**
+	 * Stops loading for openDuration after failureThreshold loadings failed in a row.
+	 */
+	public RedisLoadingCacheBuilder<T> circuitBreaker(int failureThreshold, long openDuration, TimeUnit timeUnit) {
+		Assert.isTrue(failureThreshold > 0, "Failure threshold must be a positive number.");
+		Assert.isTrue(openDuration > 0, "Open duration must be a positive number.");
+		this.circuitBreakerFailureThreshold = failureThreshold;
+		this.circuitBreakerOpenDuration = timeUnit.toMillis(openDuration);
+		return this;
+	}
+
+	/**
+	 * Keeps the last good value of up to maximumSize keys in process, and serves it for gracePeriod after its expired
+	 * time when redis is unavailable or the loading fails.
+	 */
+	public RedisLoadingCacheBuilder<T> staleIfError(long maximumSize, long gracePeriod, TimeUnit timeUnit) {
+		Assert.isTrue(maximumSize > 0, "Stale cache maximum size must be a positive number.");
+		Assert.isTrue(gracePeriod > 0, "Stale grace period must be a positive number.");
+		this.staleCacheMaximumSize = maximumSize;
+		this.staleGracePeriod = timeUnit.toMillis(gracePeriod);
+		return this;
+	}
+
+	/**
+	 * How long redis is skipped after it is found unavailable, before one call is let through to check it again.
+	 */
+	public RedisLoadingCacheBuilder<T> redisRetryInterval(long retryInterval, TimeUnit timeUnit) {
+		Assert.isTrue(retryInterval > 0, "Redis retry interval must be a positive number.");
+		this.redisRetryInterval = timeUnit.toMillis(retryInterval);
+		return this;
+	}
+
+	/**
+	 * Remembers keys which the loader found absent for ttl, by tombstones in redis, and in process for up to
+	 * maximumSize keys, so they are answered with null without loading them again.
+	 */
+	public RedisLoadingCacheBuilder<T> negativeCaching(long ttl, TimeUnit timeUnit, long maximumSize) {
+		Assert.isTrue(ttl > 0, "Negative ttl must be a positive number.");
+		Assert.isTrue(maximumSize > 0, "Negative cache maximum size must be a positive number.");
+		this.negativeTtl = timeUnit.toMillis(ttl);
+		this.negativeCacheMaximumSize = maximumSize;
+		return this;
+	}
+
+	/**
+	 * Answers keys not in the filter with null, without touching redis or the backend.
+	 */
+	public RedisLoadingCacheBuilder<T> knownKeys(KnownKeyFilter knownKeyFilter) {
+		Assert.notNull(knownKeyFilter, "Known key filter should not be null.");
+		this.knownKeyFilter = knownKeyFilter;
+		return this;
+	}
+
+	/**
+	 * Broadcasts invalidations of keys to the other nodes by the bus, so their in-process tiers do not serve stale copies
+	 * of keys written on this node. Invalidations are batched every 10 milliseconds by default.
+	 */
+	public RedisLoadingCacheBuilder<T> invalidationBus(InvalidationBus invalidationBus) {
+		Assert.notNull(invalidationBus, "Invalidation bus should not be null.");
+		this.invalidationBus = invalidationBus;
+		return this;
+	}
+
+	public RedisLoadingCacheBuilder<T> invalidationBatching(long batchInterval, TimeUnit timeUnit, int maxBatchSize) {
+		Assert.isTrue(batchInterval > 0, "Invalidation batch interval must be a positive number.");
+		Assert.isTrue(maxBatchSize > 0, "Invalidation max batch size must be a positive number.");
+		this.invalidationBatchInterval = timeUnit.toMillis(batchInterval);
+		this.invalidationMaxBatchSize = maxBatchSize;
+		return this;
+	}
+
+	/**
+	 * Detects the keys read from redis most frequently, and pins up to topK keys read at least hotThreshold times in the
+	 * last 10000 or so reads in process for expireAfterWrite, see {@link HotKeyDetector}.
+	 */
+	public RedisLoadingCacheBuilder<T> hotKeys(int topK, int hotThreshold, long expireAfterWrite, TimeUnit timeUnit) {
+		Assert.isTrue(topK > 0, "Top K must be a positive number.");
+		Assert.isTrue(hotThreshold > 0, "Hot threshold must be a positive number.");
+		Assert.isTrue(expireAfterWrite > 0, "Hot key expire after write must be a positive number.");
+		this.hotKeyCount = topK;
+		this.hotKeyThreshold = hotThreshold;
+		this.hotKeyExpireAfterWrite = timeUnit.toMillis(expireAfterWrite);
+		return this;
+	}
+
+	/**
+	 * Records counters and latencies of the cache in memory, see {@link RedisLoadingCache#getStats()}.
+	 */
+	public RedisLoadingCacheBuilder<T> recordStats() {
+		this.metricsListener = new InMemoryCacheMetrics();
+		return this;
+	}
+
+	/**
+	 * Notifies the listener of cache events, it replaces {@link #recordStats()}, extend {@link InMemoryCacheMetrics} to
+	 * have both.
+	 */
+	public RedisLoadingCacheBuilder<T> metricsListener(CacheMetricsListener metricsListener) {
+		Assert.notNull(metricsListener, "Metrics listener should not be null.");
+		this.metricsListener = metricsListener;
+		return this;
+	}
+
+	/**
+	 * Builds the cache loading missed keys by the loader, a {@link BatchCacheLoader} is used to load all missed keys of
+	 * {@link RedisLoadingCache#getAll(Collection)} at once, and an {@link AsyncCacheLoader} loads keys without holding a
+	 * refresh thread.
+	 */
+	public RedisLoadingCache<T> build(final CacheLoader<T> loader) {
+		Assert.notNull(loader, "Cache loader should not be null.");
 		Assert.isTrue(StringUtils.isNoneBlank(name), "Cache name should not be empty.");
 		Assert.isTrue(ttl > 1, "Expired time must be larger than 1 second.");
 		Assert.isTrue(refreshBeforeExpired > 0 && refreshBeforeExpired < ttl,
 				"Refresh before expired period must be larger than 0 and smaller than expired time.");
 
 		final String name = this.name;
-		return new RedisLoadingCache(jedisTemplate, cachedObjectClass, refreshBeforeExpired, ttl, directLoadingThreshold) {
+		RedisLoadingCache<T> cache = new RedisLoadingCache<T>(jedisTemplate, cachedObjectClass, refreshBeforeExpired,
+				ttl, directLoadingThreshold) {
+			@Override
+			public T load(String key) {
+				return loader.load(key);
+			}
+
 			@Override
-			public CachedObject load(String key) {
-				return loader.load();
+			protected ListenableFuture<T> loadAsync(String key) {
+				if (loader instanceof AsyncCacheLoader) {
+					return ((AsyncCacheLoader<T>) loader).loadAsync(key);
+				}
+				return super.loadAsync(key);
+			}
+
+			@Override
+			protected boolean isAsyncLoading() {
+				return loader instanceof AsyncCacheLoader;
+			}
+
+			@Override
+			protected Map<String, T> loadAll(Collection<String> keys) {
+				if (loader instanceof BatchCacheLoader) {
+					return ((BatchCacheLoader<T>) loader).loadAll(keys);
+				}
+				return super.loadAll(keys);
 			}
 
 			@Override
@@ -72,5 +403,69 @@ public class RedisLoadingCacheBuilder<T extends CachedObject> {
 				return name;
 			}
 		};
+
+		if (refreshExecutor != null) {
+			cache.setRefreshExecutor(refreshExecutor, true);
+		} else {
+			cache.setRefreshExecutor(RefreshExecutors.newBoundedExecutor("async-refresh-cache-" + name, refreshThreads,
+					refreshQueueCapacity, refreshRejectionPolicy), false);
+		}
+		if (minLoadingConcurrency > 0) {
+			Assert.isTrue(minLoadingConcurrency <= directLoadingThreshold,
+					"Min loading concurrency must not be larger than loading threshold.");
+			cache.setConcurrencyLimiter(new AdaptiveConcurrencyLimiter(minLoadingConcurrency,
+					(int) directLoadingThreshold, loadingLatencyThreshold, TimeUnit.MILLISECONDS));
+		}
+		if (circuitBreakerFailureThreshold > 0) {
+			cache.setCircuitBreaker(new CircuitBreaker(circuitBreakerFailureThreshold, circuitBreakerOpenDuration,
+					TimeUnit.MILLISECONDS));
+		}
+		if (loadingTimeout > 0) {
+			cache.setLoadingTimeout(loadingTimeout, TimeUnit.MILLISECONDS);
+		}
+		if (nearCacheMaximumSize > 0) {
+			cache.setNearCache(new NearCache<T>(nearCacheMaximumSize, nearCacheExpireAfterWrite, TimeUnit.MILLISECONDS));
+		}
+		CacheCodec codec = this.codec != null ? this.codec : JacksonCacheCodec.json();
+		if (compressionThreshold >= 0) {
+			codec = new CompressingCacheCodec(codec, compressionThreshold);
+		}
+		cache.setCodec(codec);
+		if (earlyRefreshBeta > 0) {
+			cache.setEarlyRefreshBeta(earlyRefreshBeta);
+		}
+		if (ttlJitter > 0) {
+			cache.setTtlJitter(ttlJitter, TimeUnit.MILLISECONDS);
+		}
+		if (loadLeaseTime > 0) {
+			cache.setLoadLease(new RedisLoadLease(jedisTemplate, name, loadLeaseTime, TimeUnit.MILLISECONDS));
+		}
+		if (staleCacheMaximumSize > 0) {
+			cache.setStaleCache(new StaleCache<T>(staleCacheMaximumSize, staleGracePeriod, TimeUnit.MILLISECONDS));
+		}
+		if (negativeTtl > 0) {
+			cache.setNegativeCache(new NegativeCache(negativeCacheMaximumSize, negativeTtl, TimeUnit.MILLISECONDS));
+		}
+		if (knownKeyFilter != null) {
+			cache.setKnownKeyFilter(knownKeyFilter);
+		}
+		if (invalidationBus != null) {
+			cache.setInvalidationBus(invalidationBus, invalidationBatchInterval, TimeUnit.MILLISECONDS,
+					invalidationMaxBatchSize);
+		}
+		if (hotKeyCount > 0) {
+			cache.setHotKeyDetector(new HotKeyDetector(hotKeyCount, hotKeyThreshold),
+					new NearCache<T>(hotKeyCount, hotKeyExpireAfterWrite, TimeUnit.MILLISECONDS));
+		}
+		if (readExecutor != null) {
+			cache.setReadExecutor(readExecutor);
+		}
+		if (metricsListener != null) {
+			cache.setMetricsListener(metricsListener);
+		}
+		if (redisRetryInterval > 0) {
+			cache.setRedisHealthCheck(new RedisHealthCheck(redisRetryInterval, TimeUnit.MILLISECONDS));
+		}
+		return cache;
 	}
 }
@@ -0,0 +1,95 @@
+package com.neway6655.cache;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory of the executors which load and refresh cached objects in background.
+ *
+ * The executors are bounded: a refresh storm fills the queue up to its capacity, then further loadings are handled by
+ * the {@link RejectionPolicy}. One executor may be shared by many caches, see
+ * {@link RedisLoadingCacheBuilder#refreshExecutor(java.util.concurrent.ExecutorService)}.
+ */
+public class RefreshExecutors {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RefreshExecutors.class);
+
+	/**
+	 * What to do with a loading when the refresh executor is saturated. A dropped loading is cancelled rather than
+	 * discarded silently, so callers waiting on it return at once instead of waiting for the loading timeout.
+	 */
+	public enum RejectionPolicy {
+
+		/**
+		 * Drops the new loading.
+		 */
+		ABORT,
+
+		/**
+		 * Runs the new loading in the calling thread.
+		 */
+		CALLER_RUNS,
+
+		/**
+		 * Drops the oldest queued loading, then queues the new one.
+		 */
+		DISCARD_OLDEST
+	}
+
+	private RefreshExecutors() {
+	}
+
+	public static ThreadPoolExecutor newBoundedExecutor(String name, int threads, int queueCapacity,
+			RejectionPolicy rejectionPolicy) {
+		Assert.isTrue(threads > 0, "Refresh threads must be a positive number.");
+		Assert.isTrue(queueCapacity > 0, "Refresh queue capacity must be a positive number.");
+		Assert.notNull(rejectionPolicy, "Rejection policy should not be null.");
+
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build(),
+				new CancellingRejectedExecutionHandler(rejectionPolicy));
+	}
+
+	private static class CancellingRejectedExecutionHandler implements RejectedExecutionHandler {
+
+		private final RejectionPolicy rejectionPolicy;
+
+		CancellingRejectedExecutionHandler(RejectionPolicy rejectionPolicy) {
+			this.rejectionPolicy = rejectionPolicy;
+		}
+
+		@Override
+		public void rejectedExecution(Runnable loading, ThreadPoolExecutor executor) {
+			if (executor.isShutdown()) {
+				throw new RejectedExecutionException("Refresh executor has been shut down.");
+			}
+
+			switch (rejectionPolicy) {
+			case CALLER_RUNS:
+				loading.run();
+				break;
+			case DISCARD_OLDEST:
+				Runnable oldest = executor.getQueue().poll();
+				if (oldest instanceof Future) {
+					((Future) oldest).cancel(false);
+				}
+				LOG.warn("Refresh executor is saturated, dropped the oldest queued loading.");
+				executor.execute(loading);
+				break;
+			default:
+				throw new RejectedExecutionException("Refresh executor is saturated with "
+						+ executor.getQueue().size() + " queued loadings.");
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.neway6655.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StaleCache keeps the last good cached object of each key in process, so it can still be served when redis is
+ * unavailable or the loader fails, for up to a grace period after the object expired.
+ *
+ * The size of stale cache is bounded, least recently used entries are evicted first.
+ *
+ * @param <T>
+ */
+public class StaleCache<T extends CachedObject> {
+
+	private final Cache<String, T> cache;
+
+	private final long gracePeriodInMillis;
+
+	public StaleCache(long maximumSize, long gracePeriod, TimeUnit timeUnit) {
+		Assert.isTrue(maximumSize > 0, "Stale cache maximum size must be a positive number.");
+		Assert.isTrue(gracePeriod > 0, "Stale cache grace period must be a positive number.");
+		this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+		this.gracePeriodInMillis = timeUnit.toMillis(gracePeriod);
+	}
+
+	/**
+	 * @return the last good object of the key, or null if there is none or it expired more than the grace period ago.
+	 */
+	public T get(String key) {
+		T cachedObject = cache.getIfPresent(key);
+		if (cachedObject == null) {
+			return null;
+		}
+
+		if (TimeUnit.SECONDS.toMillis(cachedObject.getExpiredTime()) + gracePeriodInMillis < System.currentTimeMillis()) {
+			cache.invalidate(key);
+			return null;
+		}
+
+		return cachedObject;
+	}
+
+	public void put(String key, T cachedObject) {
+		cache.put(key, cachedObject);
+	}
+
+	public void invalidate(String key) {
+		cache.invalidate(key);
+	}
+}
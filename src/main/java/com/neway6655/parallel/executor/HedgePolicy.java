@@ -0,0 +1,40 @@
+package com.neway6655.parallel.executor;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HedgePolicy re-issues a task which has not finished after the given percentile of the recent latencies of its kind,
+ * the tasks of the same downstream, or else of the same class. The first attempt to finish wins and the other one is
+ * cancelled. The delay is never less than the minimum delay, which is also the delay until enough latencies are
+ * recorded.
+ *
+ * Hedged tasks may run twice concurrently, they must be idempotent.
+ */
+public class HedgePolicy {
+
+	static final int MIN_SAMPLE_COUNT = 20;
+
+	private final double percentile;
+
+	private final long minDelayInMillSec;
+
+	/**
+	 * @param percentile between 0 and 100, e.g. 95 to hedge the 5% slowest tasks.
+	 */
+	public HedgePolicy(double percentile, long minDelay, TimeUnit timeUnit) {
+		Assert.isTrue(percentile > 0 && percentile < 100, "Percentile must be between 0 and 100.");
+		Assert.isTrue(minDelay >= 0, "Minimum delay must not be negative.");
+		this.percentile = percentile;
+		this.minDelayInMillSec = timeUnit.toMillis(minDelay);
+	}
+
+	public double getPercentile() {
+		return percentile;
+	}
+
+	public long getMinDelayInMillSec() {
+		return minDelayInMillSec;
+	}
+}
@@ -0,0 +1,73 @@
+package com.neway6655.parallel.executor;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyWindow keeps the latest 256 latencies of a kind of task, so its percentiles follow the recent latency rather
+ * than all the latencies since start. Recording is lock-free, a percentile sorts a copy of the window, it is cached
+ * until a quarter of the window has been recorded again.
+ */
+class LatencyWindow {
+
+	static final int SIZE = 256;
+
+	private final AtomicLongArray latencies = new AtomicLongArray(SIZE);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private volatile CachedPercentile cachedPercentile;
+
+	void record(long latency) {
+		long index = count.getAndIncrement();
+		latencies.set((int) (index % SIZE), latency);
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @param percentile between 0 and 100.
+	 * @return the latency which the given percentage of the latencies in the window are less than or equal to, 0 if
+	 *         none is recorded yet.
+	 */
+	long getPercentile(double percentile) {
+		long currentCount = count.get();
+		CachedPercentile cached = cachedPercentile;
+		if (cached != null && cached.percentile == percentile && currentCount - cached.count < SIZE / 4) {
+			return cached.value;
+		}
+
+		int size = (int) Math.min(currentCount, SIZE);
+		if (size == 0) {
+			return 0;
+		}
+		long[] window = new long[size];
+		for (int i = 0; i < size; i++) {
+			window[i] = latencies.get(i);
+		}
+		Arrays.sort(window);
+
+		int rank = (int) Math.max(1, Math.ceil(size * Math.min(100, Math.max(0, percentile)) / 100));
+		long value = window[rank - 1];
+		cachedPercentile = new CachedPercentile(percentile, currentCount, value);
+		return value;
+	}
+
+	private static class CachedPercentile {
+
+		private final double percentile;
+
+		private final long count;
+
+		private final long value;
+
+		CachedPercentile(double percentile, long count, long value) {
+			this.percentile = percentile;
+			this.count = count;
+			this.value = value;
+		}
+	}
+}
@@ -1,15 +1,40 @@
 package com.neway6655.parallel.executor;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.neway6655.parallel.executor.task.ParallelTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.schedulers.Schedulers;
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by neway on 12/7/15.
+ *
+ * Tasks run on a single pool, their results are collected by completion callbacks rather than by threads blocking on
+ * each task's future, and the caller waits once for all of them, within one deadline shared by all tasks.
+ *
+ * Optionally, slow tasks are hedged by a {@link HedgePolicy} and failed tasks are retried by a {@link RetryPolicy},
+ * both within the deadline of the call.
+ *
+ * For tasks blocking on I/O, {@link #withVirtualThreads(int, long, TimeUnit)} runs each task on its own virtual thread
+ * instead of a fixed pool, and the concurrency is capped per downstream service rather than by a pool size.
  */
 public class ParallelExecutor {
 
@@ -19,122 +44,592 @@ public class ParallelExecutor {
 
 	public static final int SHUTDOWN_TIMEOUT_IN_SEC = 10;
 
-	private ExecutorService parallelExecutorService;
+	private ListeningExecutorService parallelExecutorService;
 
-	private ExecutorService collectResultExecutorService;
+	private ScheduledExecutorService scheduledExecutorService;
 
 	private long timeoutInMillSec;
 
+	private volatile HedgePolicy hedgePolicy;
+
+	private volatile RetryPolicy retryPolicy;
+
+	// the latencies of each kind of task, tasks of a downstream or of a class, to hedge them by their own latency.
+	private final ConcurrentMap<String, LatencyWindow> taskLatencies = new ConcurrentHashMap<String, LatencyWindow>();
+
+	private final ConcurrentMap<String, Semaphore> downstreamPermits = new ConcurrentHashMap<String, Semaphore>();
+
 	public ParallelExecutor(int parallelThreads) {
 		this(parallelThreads, DEFAULT_TIMEOUT_IN_SEC, TimeUnit.SECONDS);
 	}
 
 	public ParallelExecutor(int parallelThreads, long timeout, TimeUnit timeUnit) {
+		this(Executors.newFixedThreadPool(parallelThreads), timeout, timeUnit);
+	}
+
+	private ParallelExecutor(ExecutorService executorService, long timeout, TimeUnit timeUnit) {
 		if (timeout <= 0) {
 			throw new IllegalArgumentException("timeout must be a positive value.");
 		}
 		timeoutInMillSec = timeUnit.toMillis(timeout);
-		parallelExecutorService = Executors.newFixedThreadPool(parallelThreads);
-		collectResultExecutorService = Executors.newFixedThreadPool(parallelThreads);
+		parallelExecutorService = MoreExecutors.listeningDecorator(executorService);
+		scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("parallel-executor-scheduler-%d").setDaemon(true).build());
 	}
 
+	/**
+	 * Creates an executor running each task on a new virtual thread, without any limit but the downstream concurrency
+	 * limits. On JVMs without virtual threads, before 21, tasks run on a fixed pool of parallelThreads platform threads
+	 * instead, as with {@link #ParallelExecutor(int, long, TimeUnit)}.
+	 */
+	public static ParallelExecutor withVirtualThreads(int parallelThreads, long timeout, TimeUnit timeUnit) {
+		if (parallelThreads <= 0) {
+			throw new IllegalArgumentException("parallelThreads must be a positive value.");
+		}
+		return new ParallelExecutor(VirtualThreads.newThreadPerTaskExecutor(parallelThreads), timeout, timeUnit);
+	}
+
+	/**
+	 * Caps the number of tasks of the given downstream, see {@link ParallelTask#getDownstream()}, running at the same
+	 * time across all calls. Tasks over the cap wait for a permit on their thread, until the deadline of their call, and
+	 * are cancelled if they could not start by then.
+	 */
+	public void setDownstreamConcurrency(String downstream, int maxConcurrency) {
+		if (maxConcurrency <= 0) {
+			throw new IllegalArgumentException("maxConcurrency must be a positive value.");
+		}
+		downstreamPermits.put(downstream, new Semaphore(maxConcurrency));
+	}
+
+	/**
+	 * @param hedgePolicy null to disable hedging, which is the default.
+	 */
+	public void setHedgePolicy(HedgePolicy hedgePolicy) {
+		this.hedgePolicy = hedgePolicy;
+	}
+
+	/**
+	 * @param retryPolicy null to disable retries, which is the default.
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * @return the results in the order of the tasks, or an empty list if any task fails or does not finish in time,
+	 *         the unfinished tasks are then cancelled.
+	 */
 	public <T> List<ParallelTask.TaskResult<T>> parallelProcess(ParallelTask... parallelTasks) {
-		CountDownLatch fetchResultLatch = new CountDownLatch(parallelTasks.length);
+		List<TaskExecution<T>> taskExecutions = startParallelTasks(parallelTasks);
+		List<ListenableFuture<T>> taskFutureList = getTaskFutures(taskExecutions);
+
+		// fails as soon as one task fails, and cancelling it cancels all the tasks.
+		ListenableFuture<List<T>> allResultsFuture = Futures.allAsList(taskFutureList);
+
+		try {
+			allResultsFuture.get(timeoutInMillSec, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			allResultsFuture.cancel(true);
+			Thread.currentThread().interrupt();
+			return Lists.newArrayList();
+		} catch (ExecutionException e) {
+			logger.error("Error occurred when execute task.", e.getCause());
+			allResultsFuture.cancel(true);
+			return Lists.newArrayList();
+		} catch (TimeoutException e) {
+			logger.error("Failed to fetch result from some task due to timeout.");
+			allResultsFuture.cancel(true);
+			return Lists.newArrayList();
+		}
 
 		List<ParallelTask.TaskResult<T>> resultList = Lists.newArrayList();
+		for (TaskExecution<T> taskExecution : taskExecutions) {
+			resultList.add(taskExecution.taskResult);
+		}
 
-		List<Future> taskResultFutureList = startParallelTasks(parallelTasks);
+		return resultList;
+	}
 
-		List<Future> collectResultFutureList = getTaskFutureResults(taskResultFutureList, fetchResultLatch);
+	/**
+	 * Unlike {@link #parallelProcess(ParallelTask[])}, a failed or slow task does not discard the results of the other
+	 * tasks: it waits for all the tasks until the deadline, cancels the unfinished ones, and returns whatever finished.
+	 *
+	 * @return one result per task, in the order of the tasks, with its status: succeeded or failed tasks as they
+	 *         finished, tasks still running at the deadline as timed out, tasks not started yet as cancelled. If the
+	 *         caller is interrupted, the unfinished tasks are given as cancelled and the interrupt flag is kept.
+	 */
+	public <T> List<ParallelTask.TaskResult<T>> parallelProcessPartially(ParallelTask... parallelTasks) {
+		List<TaskExecution<T>> taskExecutions = startParallelTasks(parallelTasks);
+		List<ListenableFuture<T>> taskFutureList = getTaskFutures(taskExecutions);
 
-		boolean finished = false;
+		boolean interrupted = false;
 		try {
-			finished = fetchResultLatch.await(timeoutInMillSec, TimeUnit.MILLISECONDS);
+			Futures.successfulAsList(taskFutureList).get(timeoutInMillSec, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException e) {
-			// ignore interruptedException.
-		}
-		if (!finished) {
-            logger.error("Failed to fetch result from some task due to timeout.");
-			return resultList;
+			interrupted = true;
+		} catch (ExecutionException e) {
+			// never happens, failed tasks are given as null by successfulAsList.
+		} catch (TimeoutException e) {
+			logger.warn("Some tasks did not finish before the deadline, returning partial results.");
 		}
 
-		for (Future<T> future : collectResultFutureList) {
-			ParallelTask.TaskResult taskResult = new ParallelTask.TaskResult();
-			try {
-				taskResult.setResult(future.get());
-                resultList.add(taskResult);
-			} catch (InterruptedException e) {
-				// ignore interrupted exception.
-			} catch (ExecutionException e) {
-				logger.error("Error occurred when execute task.", e);
-                return Lists.newArrayList();
-			}
+		// the last tasks are cancelled first, so that cancelling a running task does not free a thread for a queued one.
+		List<ParallelTask.TaskResult<T>> resultList = Lists.newArrayList();
+		for (TaskExecution<T> taskExecution : Lists.reverse(taskExecutions)) {
+			resultList.add(taskExecution.finalResult(interrupted));
 		}
+		Collections.reverse(resultList);
 
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
 		return resultList;
 	}
 
+	/**
+	 * Like {@link #parallelProcessPartially(ParallelTask[])}, but gives each result as soon as its task finishes, so
+	 * the results can be merged while the slower tasks are still running.
+	 *
+	 * The iterator is pull-based: at most window tasks are started and not consumed yet, the next task starts when a
+	 * result is consumed, so a slow consumer holds back the fan-out rather than buffering its results. Its next() blocks
+	 * until a task finishes or the deadline passes, after which the remaining tasks are given as timed out or cancelled.
+	 *
+	 * @return one result per task, in the order the tasks finish.
+	 */
+	public <T> Iterator<ParallelTask.TaskResult<T>> parallelProcessStreaming(int window,
+			ParallelTask... parallelTasks) {
+		if (window <= 0) {
+			throw new IllegalArgumentException("window must be a positive value.");
+		}
+		return new StreamingIterator<T>(window, parallelTasks);
+	}
+
+	/**
+	 * {@link #parallelProcessStreaming(int, ParallelTask[])} as an Observable, every subscription starts a new fan-out.
+	 * It honours the backpressure of its subscriber: a task starts only once a result is requested. The results are
+	 * emitted on the io scheduler, which is blocked while waiting for them.
+	 */
+	public <T> Observable<ParallelTask.TaskResult<T>> parallelProcessObservable(final int window,
+			final ParallelTask... parallelTasks) {
+		return Observable.from(new Iterable<ParallelTask.TaskResult<T>>() {
+			@Override
+			public Iterator<ParallelTask.TaskResult<T>> iterator() {
+				return parallelProcessStreaming(window, parallelTasks);
+			}
+		}).subscribeOn(Schedulers.io());
+	}
+
 	public void shutdown() throws InterruptedException {
 		parallelExecutorService.shutdown();
 		if (!parallelExecutorService.awaitTermination(SHUTDOWN_TIMEOUT_IN_SEC, TimeUnit.SECONDS)) {
 			parallelExecutorService.shutdownNow();
 		}
 
-		collectResultExecutorService.shutdown();
-		if (!collectResultExecutorService.awaitTermination(SHUTDOWN_TIMEOUT_IN_SEC, TimeUnit.SECONDS)) {
-			collectResultExecutorService.shutdownNow();
+		// pending hedges and retries are of no use once the pool is down.
+		scheduledExecutorService.shutdownNow();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> List<TaskExecution<T>> startParallelTasks(ParallelTask... parallelTaskList) {
+		long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillSec);
+		HedgePolicy currentHedgePolicy = hedgePolicy;
+		RetryPolicy currentRetryPolicy = retryPolicy;
+
+		List<TaskExecution<T>> taskExecutions = Lists.newArrayList();
+		for (ParallelTask task : parallelTaskList) {
+			TaskExecution<T> taskExecution = new TaskExecution<T>(task, deadlineNanos, currentHedgePolicy,
+					currentRetryPolicy);
+			taskExecution.start();
+			taskExecutions.add(taskExecution);
 		}
+		return taskExecutions;
 	}
 
-	private <T> List<Future> getTaskFutureResults(List<Future> taskResultFutureList, CountDownLatch fetchResultLatch) {
-		List<Future> collectResultFutureList = Lists.newArrayList();
-		for (Future<T> future : taskResultFutureList) {
-			collectResultFutureList.add(collectResultExecutorService.submit(new CollectTaskFutureResultTask(future,
-					fetchResultLatch)));
+	private <T> List<ListenableFuture<T>> getTaskFutures(List<TaskExecution<T>> taskExecutions) {
+		List<ListenableFuture<T>> taskFutureList = Lists.newArrayList();
+		for (TaskExecution<T> taskExecution : taskExecutions) {
+			taskFutureList.add(taskExecution.future);
 		}
+		return taskFutureList;
+	}
 
-		return collectResultFutureList;
+	private LatencyWindow getLatencyWindow(ParallelTask<?> task) {
+		String kind = task.getDownstream() != null ? task.getDownstream() : task.getClass().getName();
+		LatencyWindow latencyWindow = taskLatencies.get(kind);
+		if (latencyWindow == null) {
+			LatencyWindow newLatencyWindow = new LatencyWindow();
+			latencyWindow = taskLatencies.putIfAbsent(kind, newLatencyWindow);
+			if (latencyWindow == null) {
+				latencyWindow = newLatencyWindow;
+			}
+		}
+		return latencyWindow;
 	}
 
-	private <T> List<Future> startParallelTasks(ParallelTask... parallelTaskList) {
-		List<Future> taskResultFutureList = Lists.newArrayList();
+	/**
+	 * The execution of a task, by one or more attempts: the first one, a hedge if the first one is slow, and retries of
+	 * the failed ones. The first attempt to succeed completes the future and cancels the others, the task fails when no
+	 * attempt is left running or scheduled. Its result, status and elapsed time are recorded before its future
+	 * completes.
+	 */
+	private class TaskExecution<T> implements FutureCallback<T> {
 
-		for (ParallelTask task : parallelTaskList) {
-			Future<T> taskFuture = parallelExecutorService.submit(task);
-			taskResultFutureList.add(taskFuture);
+		private final ParallelTask<T> task;
+
+		private final long deadlineNanos;
+
+		private final HedgePolicy hedgePolicy;
+
+		private final LatencyWindow latencyWindow;
+
+		private final RetryPolicy retryPolicy;
+
+		private final SettableFuture<T> future = SettableFuture.create();
+
+		private final List<Future<?>> attemptFutures = new CopyOnWriteArrayList<Future<?>>();
+
+		private final AtomicInteger attempts = new AtomicInteger();
+
+		// attempts running or scheduled to run.
+		private final AtomicInteger pendingAttempts = new AtomicInteger();
+
+		private final AtomicInteger retries = new AtomicInteger();
+
+		private volatile boolean started;
+
+		private volatile long startNanos;
+
+		private volatile ParallelTask.TaskResult<T> taskResult;
+
+		TaskExecution(ParallelTask<T> task, long deadlineNanos, HedgePolicy hedgePolicy, RetryPolicy retryPolicy) {
+			this.task = task;
+			this.deadlineNanos = deadlineNanos;
+			this.hedgePolicy = hedgePolicy;
+			this.latencyWindow = getLatencyWindow(task);
+			this.retryPolicy = retryPolicy;
+		}
+
+		void start() {
+			future.addListener(new Runnable() {
+				@Override
+				public void run() {
+					for (Future<?> attemptFuture : attemptFutures) {
+						attemptFuture.cancel(true);
+					}
+				}
+			}, MoreExecutors.directExecutor());
+
+			pendingAttempts.incrementAndGet();
+			launchAttempt();
+		}
+
+		private void launchAttempt() {
+			if (future.isDone()) {
+				pendingAttempts.decrementAndGet();
+				return;
+			}
+
+			attempts.incrementAndGet();
+			ListenableFuture<T> attemptFuture;
+			try {
+				attemptFuture = parallelExecutorService.submit(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						Semaphore permits = task.getDownstream() == null ? null
+								: downstreamPermits.get(task.getDownstream());
+						if (permits != null && !permits.tryAcquire(deadlineNanos - System.nanoTime(),
+								TimeUnit.NANOSECONDS)) {
+							throw new TimeoutException("No permit for downstream " + task.getDownstream()
+									+ " before the deadline.");
+						}
+
+						try {
+							long attemptStartNanos = System.nanoTime();
+							if (!started) {
+								startNanos = attemptStartNanos;
+								started = true;
+								scheduleHedge();
+							}
+
+							T result = task.call();
+							latencyWindow.record(System.nanoTime() - attemptStartNanos);
+							return result;
+						} finally {
+							if (permits != null) {
+								permits.release();
+							}
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				onFailure(e);
+				return;
+			}
+
+			attemptFutures.add(attemptFuture);
+			if (future.isDone()) {
+				// the listener may have run before the attempt is added.
+				attemptFuture.cancel(true);
+			}
+			Futures.addCallback(attemptFuture, this);
+		}
+
+		private void scheduleHedge() {
+			if (hedgePolicy == null) {
+				return;
+			}
+			long hedgeDelayInMillSec = getHedgeDelayInMillSec();
+			if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hedgeDelayInMillSec) >= deadlineNanos) {
+				return;
+			}
+
+			schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (!future.isDone()) {
+						pendingAttempts.incrementAndGet();
+						launchAttempt();
+					}
+				}
+			}, hedgeDelayInMillSec);
+		}
+
+		/**
+		 * The percentile of the recent latencies of this kind of task, or the min delay until enough are recorded.
+		 */
+		private long getHedgeDelayInMillSec() {
+			if (latencyWindow.getCount() < HedgePolicy.MIN_SAMPLE_COUNT) {
+				return hedgePolicy.getMinDelayInMillSec();
+			}
+			return Math.max(hedgePolicy.getMinDelayInMillSec(),
+					TimeUnit.NANOSECONDS.toMillis(latencyWindow.getPercentile(hedgePolicy.getPercentile())));
 		}
 
-		return taskResultFutureList;
+		private boolean scheduleRetry() {
+			if (retryPolicy == null || future.isDone()) {
+				return false;
+			}
+
+			int retry = retries.getAndIncrement();
+			if (retry >= retryPolicy.getMaxRetries()) {
+				return false;
+			}
+
+			long backoffInMillSec = retryPolicy.getBackoffInMillSec(retry);
+			if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffInMillSec) >= deadlineNanos) {
+				return false;
+			}
+
+			return schedule(new Runnable() {
+				@Override
+				public void run() {
+					launchAttempt();
+				}
+			}, backoffInMillSec);
+		}
+
+		private boolean schedule(Runnable runnable, long delayInMillSec) {
+			try {
+				scheduledExecutorService.schedule(runnable, delayInMillSec, TimeUnit.MILLISECONDS);
+				return true;
+			} catch (RejectedExecutionException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public void onSuccess(T result) {
+			if (recordResult(ParallelTask.TaskStatus.SUCCESS, result, null)) {
+				future.set(result);
+			}
+		}
+
+		@Override
+		public void onFailure(Throwable t) {
+			if (t instanceof CancellationException) {
+				// a loser, or an attempt cancelled at the deadline.
+				pendingAttempts.decrementAndGet();
+				return;
+			}
+
+			if (scheduleRetry()) {
+				return;
+			}
+
+			if (pendingAttempts.decrementAndGet() == 0 && recordResult(ParallelTask.TaskStatus.FAILED, null, t)) {
+				future.setException(t);
+			}
+		}
+
+		private synchronized boolean recordResult(ParallelTask.TaskStatus status, T result, Throwable error) {
+			if (taskResult != null || future.isDone()) {
+				return false;
+			}
+
+			ParallelTask.TaskResult<T> finishedResult = newResult(status);
+			finishedResult.setResult(result);
+			finishedResult.setError(error);
+			taskResult = finishedResult;
+			return true;
+		}
+
+		/**
+		 * Cancels the task if it is not finished yet.
+		 *
+		 * @param interrupted whether the caller was interrupted, a running task is then given as cancelled rather than
+		 *                    timed out.
+		 */
+		synchronized ParallelTask.TaskResult<T> finalResult(boolean interrupted) {
+			// a task which finished at the deadline keeps its result, even if its future is not completed yet.
+			if (taskResult != null) {
+				return taskResult;
+			}
+			future.cancel(true);
+			return newResult(started && !interrupted ? ParallelTask.TaskStatus.TIMED_OUT
+					: ParallelTask.TaskStatus.CANCELLED);
+		}
+
+		private ParallelTask.TaskResult<T> newResult(ParallelTask.TaskStatus status) {
+			ParallelTask.TaskResult<T> newResult = new ParallelTask.TaskResult<T>();
+			newResult.setTaskId(task.getTaskId());
+			newResult.setStatus(status);
+			if (started) {
+				newResult.setElapsedTimeInMillSec(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+			}
+			newResult.setAttempts(attempts.get());
+			return newResult;
+		}
 	}
 
-	private class CollectTaskFutureResultTask<T> implements Callable<T> {
+	private class StreamingIterator<T> implements Iterator<ParallelTask.TaskResult<T>> {
+
+		private final ParallelTask[] parallelTasks;
+
+		private final long deadlineNanos;
+
+		private final HedgePolicy hedgePolicy;
+
+		private final RetryPolicy retryPolicy;
+
+		private final BlockingQueue<TaskExecution<T>> finishedExecutions = new LinkedBlockingQueue<TaskExecution<T>>();
+
+		// the started executions which have not finished yet, in the order they started, it guards cancelled too.
+		private final Set<TaskExecution<T>> runningExecutions = new LinkedHashSet<TaskExecution<T>>();
+
+		private boolean cancelled;
+
+		private final ScheduledFuture<?> deadlineFuture;
+
+		private int startedCount;
+
+		private int consumedCount;
+
+		private boolean expired;
+
+		private boolean interrupted;
+
+		StreamingIterator(int window, ParallelTask[] parallelTasks) {
+			this.parallelTasks = parallelTasks;
+			this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillSec);
+			this.hedgePolicy = ParallelExecutor.this.hedgePolicy;
+			this.retryPolicy = ParallelExecutor.this.retryPolicy;
+
+			// cancels the tasks of an iterator which is given up before the deadline too.
+			this.deadlineFuture = scheduledExecutorService.schedule(new Runnable() {
+				@Override
+				public void run() {
+					cancelStartedExecutions();
+				}
+			}, timeoutInMillSec, TimeUnit.MILLISECONDS);
+
+			startExecutions(window);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return consumedCount < parallelTasks.length;
+		}
 
-		private Future<T> future;
+		@Override
+		public ParallelTask.TaskResult<T> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
 
-		private CountDownLatch fetchResultLatch;
+			TaskExecution<T> taskExecution = expired ? finishedExecutions.poll() : pollFinishedExecution();
+			if (taskExecution == null && startedCount < parallelTasks.length) {
+				// after the deadline, once the started tasks are consumed, the others are given without starting.
+				taskExecution = newTaskExecution(parallelTasks[startedCount++]);
+			} else if (taskExecution == null) {
+				// a started task is finishing concurrently, its listener is about to queue it.
+				taskExecution = Uninterruptibles.takeUninterruptibly(finishedExecutions);
+			} else if (!expired) {
+				startExecutions(1);
+			}
 
-		public CollectTaskFutureResultTask(Future<T> future, CountDownLatch fetchResultLatch) {
-			this.future = future;
-			this.fetchResultLatch = fetchResultLatch;
+			if (++consumedCount == parallelTasks.length) {
+				deadlineFuture.cancel(false);
+			}
+			return taskExecution.finalResult(interrupted);
 		}
 
 		@Override
-		public T call() {
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private TaskExecution<T> pollFinishedExecution() {
 			try {
-				T result = future.get(timeoutInMillSec, TimeUnit.MILLISECONDS);
-				fetchResultLatch.countDown();
-				return result;
+				TaskExecution<T> taskExecution = finishedExecutions.poll(deadlineNanos - System.nanoTime(),
+						TimeUnit.NANOSECONDS);
+				if (taskExecution != null) {
+					return taskExecution;
+				}
+				logger.warn("Some tasks did not finish before the deadline, returning partial results.");
 			} catch (InterruptedException e) {
-				// ignore interrupted exception.
-				return null;
-			} catch (ExecutionException e) {
-				logger.error("Error occurred when executing task.", e);
-				future.cancel(true);
-				return null;
-			} catch (TimeoutException e) {
-				logger.error("Failed to fetch task's execution result due to timeout.", e);
-				future.cancel(true);
-				return null;
+				interrupted = true;
+				Thread.currentThread().interrupt();
+			}
+
+			expired = true;
+			// the cancelled tasks are queued as finished by their listener.
+			cancelStartedExecutions();
+			return finishedExecutions.poll();
+		}
+
+		private void startExecutions(int count) {
+			synchronized (runningExecutions) {
+				// once cancelled, the tasks not started yet are given as cancelled without starting.
+				for (int i = 0; i < count && startedCount < parallelTasks.length && !cancelled; i++) {
+					final TaskExecution<T> taskExecution = newTaskExecution(parallelTasks[startedCount++]);
+					taskExecution.future.addListener(new Runnable() {
+						@Override
+						public void run() {
+							synchronized (runningExecutions) {
+								runningExecutions.remove(taskExecution);
+							}
+							finishedExecutions.add(taskExecution);
+						}
+					}, MoreExecutors.directExecutor());
+					runningExecutions.add(taskExecution);
+					taskExecution.start();
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private TaskExecution<T> newTaskExecution(ParallelTask parallelTask) {
+			return new TaskExecution<T>(parallelTask, deadlineNanos, hedgePolicy, retryPolicy);
+		}
+
+		private void cancelStartedExecutions() {
+			List<TaskExecution<T>> executions;
+			synchronized (runningExecutions) {
+				cancelled = true;
+				executions = Lists.newArrayList(runningExecutions);
+			}
+			for (TaskExecution<T> taskExecution : Lists.reverse(executions)) {
+				taskExecution.future.cancel(true);
 			}
 		}
 	}
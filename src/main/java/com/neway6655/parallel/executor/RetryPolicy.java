@@ -0,0 +1,41 @@
+package com.neway6655.parallel.executor;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RetryPolicy re-runs a failed task up to maxRetries times, after a backoff doubling from the initial backoff up to the
+ * max backoff. A retry is not made if its backoff would end after the deadline of the call.
+ *
+ * Retried tasks run more than once, they must be idempotent.
+ */
+public class RetryPolicy {
+
+	private final int maxRetries;
+
+	private final long initialBackoffInMillSec;
+
+	private final long maxBackoffInMillSec;
+
+	public RetryPolicy(int maxRetries, long initialBackoff, long maxBackoff, TimeUnit timeUnit) {
+		Assert.isTrue(maxRetries > 0, "Max retries must be a positive number.");
+		Assert.isTrue(initialBackoff >= 0, "Initial backoff must not be negative.");
+		Assert.isTrue(maxBackoff >= initialBackoff, "Max backoff must not be less than the initial backoff.");
+		this.maxRetries = maxRetries;
+		this.initialBackoffInMillSec = timeUnit.toMillis(initialBackoff);
+		this.maxBackoffInMillSec = timeUnit.toMillis(maxBackoff);
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @param retry 0 for the first retry.
+	 */
+	public long getBackoffInMillSec(int retry) {
+		long backoff = initialBackoffInMillSec << Math.min(retry, 30);
+		return backoff < initialBackoffInMillSec ? maxBackoffInMillSec : Math.min(backoff, maxBackoffInMillSec);
+	}
+}
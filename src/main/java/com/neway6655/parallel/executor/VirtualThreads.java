@@ -0,0 +1,48 @@
+package com.neway6655.parallel.executor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * VirtualThreads creates a virtual thread per task executor on JVMs which have them (21+), looked up by reflection so
+ * the library still builds and runs on older JVMs, where it falls back to a fixed pool of daemon platform threads, so
+ * tasks without a downstream cap cannot create platform threads without limit.
+ */
+class VirtualThreads {
+
+	private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+	private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findFactoryMethod();
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @param fallbackThreads size of the platform thread pool used instead when virtual threads are not available.
+	 */
+	static ExecutorService newThreadPerTaskExecutor(int fallbackThreads) {
+		if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+			try {
+				return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+			} catch (Exception e) {
+				logger.warn("Failed to create a virtual thread executor, falling back to platform threads.", e);
+			}
+		}
+		return Executors.newFixedThreadPool(fallbackThreads, new ThreadFactoryBuilder()
+				.setNameFormat("parallel-executor-%d").setDaemon(true).build());
+	}
+
+	private static Method findFactoryMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			logger.info("Virtual threads are not available on this JVM, platform threads are used instead.");
+			return null;
+		}
+	}
+}
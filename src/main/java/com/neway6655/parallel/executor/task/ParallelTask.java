@@ -10,10 +10,21 @@ public abstract class ParallelTask<V> implements Callable<V> {
 
     private String taskId;
 
+    private String downstream;
+
     public ParallelTask() {
         taskId = UUID.randomUUID().toString();
     }
 
+    /**
+     * @param downstream the service the task calls, to cap the concurrent calls to it, see
+     *                   {@link com.neway6655.parallel.executor.ParallelExecutor#setDownstreamConcurrency(String, int)}.
+     */
+    public ParallelTask(String downstream) {
+        this();
+        this.downstream = downstream;
+    }
+
     @Override
     public V call() throws Exception {
         return process();
@@ -23,8 +34,31 @@ public abstract class ParallelTask<V> implements Callable<V> {
         return taskId;
     }
 
+    public String getDownstream() {
+        return downstream;
+    }
+
     abstract protected V process() throws InterruptedException;
 
+    /**
+     * The outcome of a task in a fan-out.
+     */
+    public enum TaskStatus {
+        SUCCESS,
+        /**
+         * The task threw an exception, see {@link TaskResult#getError()}.
+         */
+        FAILED,
+        /**
+         * The task was running at the deadline, and has been cancelled.
+         */
+        TIMED_OUT,
+        /**
+         * The task was cancelled before it started at the deadline, or at any point because the caller was interrupted.
+         */
+        CANCELLED
+    }
+
     /**
      * Created by neway on 12/7/15.
      */
@@ -34,6 +68,14 @@ public abstract class ParallelTask<V> implements Callable<V> {
 
         private T result;
 
+        private TaskStatus status;
+
+        private Throwable error;
+
+        private long elapsedTimeInMillSec;
+
+        private int attempts;
+
         public TaskResult() {
         }
 
@@ -52,5 +94,54 @@ public abstract class ParallelTask<V> implements Callable<V> {
         public void setResult(T result) {
             this.result = result;
         }
+
+        public TaskStatus getStatus() {
+            return status;
+        }
+
+        public void setStatus(TaskStatus status) {
+            this.status = status;
+        }
+
+        public boolean isSuccess() {
+            return status == TaskStatus.SUCCESS;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        public void setError(Throwable error) {
+            this.error = error;
+        }
+
+        /**
+         * The time the task has been running, from its start to its end or to the deadline, 0 if it never started.
+         */
+        public long getElapsedTimeInMillSec() {
+            return elapsedTimeInMillSec;
+        }
+
+        public void setElapsedTimeInMillSec(long elapsedTimeInMillSec) {
+            this.elapsedTimeInMillSec = elapsedTimeInMillSec;
+        }
+
+        /**
+         * The number of attempts of the task, more than 1 if it has been hedged or retried.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public void setAttempts(int attempts) {
+            this.attempts = attempts;
+        }
+
+        @Override
+        public String toString() {
+            return "TaskResult{taskId=" + taskId + ", status=" + status + ", elapsedTimeInMillSec="
+                    + elapsedTimeInMillSec + ", attempts=" + attempts + ", result=" + result + ", error=" + error
+                    + "}";
+        }
     }
 }
@@ -0,0 +1,637 @@
+package com.neway6655.parallel.forkjoin;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelArrays maps, reduces, prefix-sums and counts int, long and double arrays, or slices of them, in a fork-join
+ * pool, without boxing nor allocating per element: a slice is split in halves down to leaves of at least 8192 elements,
+ * a leaf is a plain loop over its elements, and primitive partial results are combined in the pool.
+ *
+ * Reduce and prefix-sum operators must be associative, results are combined in the order of the elements. Double sums
+ * are added in a different order than a sequential loop, so they may differ from it by rounding errors.
+ */
+public class ParallelArrays {
+
+	static final int MIN_SEQUENTIAL_THRESHOLD = 1 << 13;
+
+	// about 4 leaves per worker thread balances the load without too many small subtasks.
+	private static final int LEAVES_PER_THREAD = 4;
+
+	private final ForkJoinPool forkJoinPool;
+
+	public ParallelArrays(ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	public interface IntUnaryOperator {
+		int applyAsInt(int operand);
+	}
+
+	public interface LongUnaryOperator {
+		long applyAsLong(long operand);
+	}
+
+	public interface DoubleUnaryOperator {
+		double applyAsDouble(double operand);
+	}
+
+	public interface IntBinaryOperator {
+		int applyAsInt(int left, int right);
+	}
+
+	public interface LongBinaryOperator {
+		long applyAsLong(long left, long right);
+	}
+
+	public interface DoubleBinaryOperator {
+		double applyAsDouble(double left, double right);
+	}
+
+	/**
+	 * Sets target[i] to operator(source[i]) for every i of the slice, target may be source to map in place.
+	 */
+	public void map(final int[] source, final int[] target, int from, int to, final IntUnaryOperator operator) {
+		checkSlice(source.length, from, to);
+		checkSlice(target.length, from, to);
+		forkJoinPool.invoke(new SliceTask(from, to, sequentialThreshold(to - from)) {
+			@Override
+			void computeSequentially(int from, int to) {
+				for (int i = from; i < to; i++) {
+					target[i] = operator.applyAsInt(source[i]);
+				}
+			}
+		});
+	}
+
+	public void map(int[] source, int[] target, IntUnaryOperator operator) {
+		map(source, target, 0, source.length, operator);
+	}
+
+	/**
+	 * Sets target[i] to operator(source[i]) for every i of the slice, target may be source to map in place.
+	 */
+	public void map(final long[] source, final long[] target, int from, int to, final LongUnaryOperator operator) {
+		checkSlice(source.length, from, to);
+		checkSlice(target.length, from, to);
+		forkJoinPool.invoke(new SliceTask(from, to, sequentialThreshold(to - from)) {
+			@Override
+			void computeSequentially(int from, int to) {
+				for (int i = from; i < to; i++) {
+					target[i] = operator.applyAsLong(source[i]);
+				}
+			}
+		});
+	}
+
+	public void map(long[] source, long[] target, LongUnaryOperator operator) {
+		map(source, target, 0, source.length, operator);
+	}
+
+	/**
+	 * Sets target[i] to operator(source[i]) for every i of the slice, target may be source to map in place.
+	 */
+	public void map(final double[] source, final double[] target, int from, int to,
+			final DoubleUnaryOperator operator) {
+		checkSlice(source.length, from, to);
+		checkSlice(target.length, from, to);
+		forkJoinPool.invoke(new SliceTask(from, to, sequentialThreshold(to - from)) {
+			@Override
+			void computeSequentially(int from, int to) {
+				for (int i = from; i < to; i++) {
+					target[i] = operator.applyAsDouble(source[i]);
+				}
+			}
+		});
+	}
+
+	public void map(double[] source, double[] target, DoubleUnaryOperator operator) {
+		map(source, target, 0, source.length, operator);
+	}
+
+	/**
+	 * @param identity the result of an empty slice, combined with any value it gives the same value.
+	 */
+	public int reduce(int[] array, int from, int to, int identity, IntBinaryOperator operator) {
+		checkSlice(array.length, from, to);
+		IntReduceTask task = new IntReduceTask(array, from, to, sequentialThreshold(to - from), identity, operator);
+		forkJoinPool.invoke(task);
+		return task.result;
+	}
+
+	public int reduce(int[] array, int identity, IntBinaryOperator operator) {
+		return reduce(array, 0, array.length, identity, operator);
+	}
+
+	/**
+	 * @param identity the result of an empty slice, combined with any value it gives the same value.
+	 */
+	public long reduce(long[] array, int from, int to, long identity, LongBinaryOperator operator) {
+		checkSlice(array.length, from, to);
+		LongReduceTask task = new LongReduceTask(array, from, to, sequentialThreshold(to - from), identity, operator);
+		forkJoinPool.invoke(task);
+		return task.result;
+	}
+
+	public long reduce(long[] array, long identity, LongBinaryOperator operator) {
+		return reduce(array, 0, array.length, identity, operator);
+	}
+
+	/**
+	 * @param identity the result of an empty slice, combined with any value it gives the same value.
+	 */
+	public double reduce(double[] array, int from, int to, double identity, DoubleBinaryOperator operator) {
+		checkSlice(array.length, from, to);
+		DoubleReduceTask task = new DoubleReduceTask(array, from, to, sequentialThreshold(to - from), identity,
+				operator);
+		forkJoinPool.invoke(task);
+		return task.result;
+	}
+
+	public double reduce(double[] array, double identity, DoubleBinaryOperator operator) {
+		return reduce(array, 0, array.length, identity, operator);
+	}
+
+	/**
+	 * Replaces every element of the slice by the sum of the elements of the slice up to it, included. Sums overflow as
+	 * ints do.
+	 */
+	public void prefixSum(final int[] array, int from, int to) {
+		checkSlice(array.length, from, to);
+		final BlockScan scan = new BlockScan(from, to, sequentialThreshold(to - from));
+		final long[] blockSums = new long[scan.blockCount];
+
+		forkJoinPool.invoke(scan.new BlockTask() {
+			@Override
+			void computeBlock(int block, int from, int to) {
+				int sum = 0;
+				for (int i = from; i < to; i++) {
+					sum += array[i];
+				}
+				blockSums[block] = sum;
+			}
+		});
+
+		long offset = 0;
+		for (int block = 0; block < blockSums.length; block++) {
+			long blockSum = blockSums[block];
+			blockSums[block] = offset;
+			offset += blockSum;
+		}
+
+		forkJoinPool.invoke(scan.new BlockTask() {
+			@Override
+			void computeBlock(int block, int from, int to) {
+				int sum = (int) blockSums[block];
+				for (int i = from; i < to; i++) {
+					sum += array[i];
+					array[i] = sum;
+				}
+			}
+		});
+	}
+
+	public void prefixSum(int[] array) {
+		prefixSum(array, 0, array.length);
+	}
+
+	/**
+	 * Replaces every element of the slice by the sum of the elements of the slice up to it, included.
+	 */
+	public void prefixSum(final long[] array, int from, int to) {
+		checkSlice(array.length, from, to);
+		final BlockScan scan = new BlockScan(from, to, sequentialThreshold(to - from));
+		final long[] blockSums = new long[scan.blockCount];
+
+		forkJoinPool.invoke(scan.new BlockTask() {
+			@Override
+			void computeBlock(int block, int from, int to) {
+				long sum = 0;
+				for (int i = from; i < to; i++) {
+					sum += array[i];
+				}
+				blockSums[block] = sum;
+			}
+		});
+
+		long offset = 0;
+		for (int block = 0; block < blockSums.length; block++) {
+			long blockSum = blockSums[block];
+			blockSums[block] = offset;
+			offset += blockSum;
+		}
+
+		forkJoinPool.invoke(scan.new BlockTask() {
+			@Override
+			void computeBlock(int block, int from, int to) {
+				long sum = blockSums[block];
+				for (int i = from; i < to; i++) {
+					sum += array[i];
+					array[i] = sum;
+				}
+			}
+		});
+	}
+
+	public void prefixSum(long[] array) {
+		prefixSum(array, 0, array.length);
+	}
+
+	/**
+	 * Replaces every element of the slice by the sum of the elements of the slice up to it, included.
+	 */
+	public void prefixSum(final double[] array, int from, int to) {
+		checkSlice(array.length, from, to);
+		final BlockScan scan = new BlockScan(from, to, sequentialThreshold(to - from));
+		final double[] blockSums = new double[scan.blockCount];
+
+		forkJoinPool.invoke(scan.new BlockTask() {
+			@Override
+			void computeBlock(int block, int from, int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) {
+					sum += array[i];
+				}
+				blockSums[block] = sum;
+			}
+		});
+
+		double offset = 0;
+		for (int block = 0; block < blockSums.length; block++) {
+			double blockSum = blockSums[block];
+			blockSums[block] = offset;
+			offset += blockSum;
+		}
+
+		forkJoinPool.invoke(scan.new BlockTask() {
+			@Override
+			void computeBlock(int block, int from, int to) {
+				double sum = blockSums[block];
+				for (int i = from; i < to; i++) {
+					sum += array[i];
+					array[i] = sum;
+				}
+			}
+		});
+	}
+
+	public void prefixSum(double[] array) {
+		prefixSum(array, 0, array.length);
+	}
+
+	/**
+	 * Counts the elements of the slice in buckets of equal width splitting [min, max), elements out of it are not
+	 * counted.
+	 */
+	public long[] histogram(final int[] array, int from, int to, final int min, final int max, final int buckets) {
+		checkSlice(array.length, from, to);
+		checkHistogram(max > min, buckets);
+		final long range = (long) max - min;
+		return histogram(from, to, buckets, new HistogramLeaf() {
+			@Override
+			public void count(long[] counts, int from, int to) {
+				for (int i = from; i < to; i++) {
+					int value = array[i];
+					if (value >= min && value < max) {
+						// exact, (value - min) * buckets is less than 2^62.
+						counts[(int) ((value - (long) min) * buckets / range)]++;
+					}
+				}
+			}
+		});
+	}
+
+	public long[] histogram(int[] array, int min, int max, int buckets) {
+		return histogram(array, 0, array.length, min, max, buckets);
+	}
+
+	/**
+	 * Counts the elements of the slice in buckets of equal width splitting [min, max), elements out of it are not
+	 * counted. The bucket of an element is computed in double, it may be off by one at the bounds of buckets when the
+	 * range is wider than 2^53.
+	 */
+	public long[] histogram(final long[] array, int from, int to, final long min, final long max, final int buckets) {
+		checkSlice(array.length, from, to);
+		checkHistogram(max > min && max - min > 0, buckets);
+		final double bucketsPerUnit = (double) buckets / (max - min);
+		return histogram(from, to, buckets, new HistogramLeaf() {
+			@Override
+			public void count(long[] counts, int from, int to) {
+				for (int i = from; i < to; i++) {
+					long value = array[i];
+					if (value >= min && value < max) {
+						counts[Math.min(buckets - 1, (int) ((value - min) * bucketsPerUnit))]++;
+					}
+				}
+			}
+		});
+	}
+
+	public long[] histogram(long[] array, long min, long max, int buckets) {
+		return histogram(array, 0, array.length, min, max, buckets);
+	}
+
+	/**
+	 * Counts the elements of the slice in buckets of equal width splitting [min, max), elements out of it, or NaN, are
+	 * not counted.
+	 */
+	public long[] histogram(final double[] array, int from, int to, final double min, final double max,
+			final int buckets) {
+		checkSlice(array.length, from, to);
+		checkHistogram(max > min && !Double.isInfinite(max - min), buckets);
+		final double bucketsPerUnit = buckets / (max - min);
+		return histogram(from, to, buckets, new HistogramLeaf() {
+			@Override
+			public void count(long[] counts, int from, int to) {
+				for (int i = from; i < to; i++) {
+					double value = array[i];
+					if (value >= min && value < max) {
+						counts[Math.min(buckets - 1, (int) ((value - min) * bucketsPerUnit))]++;
+					}
+				}
+			}
+		});
+	}
+
+	public long[] histogram(double[] array, double min, double max, int buckets) {
+		return histogram(array, 0, array.length, min, max, buckets);
+	}
+
+	private long[] histogram(int from, int to, int buckets, HistogramLeaf leaf) {
+		HistogramTask task = new HistogramTask(from, to, sequentialThreshold(to - from), buckets, leaf);
+		forkJoinPool.invoke(task);
+		return task.counts;
+	}
+
+	private int sequentialThreshold(int length) {
+		return Math.max(MIN_SEQUENTIAL_THRESHOLD, length / (forkJoinPool.getParallelism() * LEAVES_PER_THREAD));
+	}
+
+	private static void checkSlice(int length, int from, int to) {
+		if (from > to) {
+			throw new IllegalArgumentException("from(" + from + ") > to(" + to + ")");
+		}
+		if (from < 0) {
+			throw new ArrayIndexOutOfBoundsException(from);
+		}
+		if (to > length) {
+			throw new ArrayIndexOutOfBoundsException(to);
+		}
+	}
+
+	private static void checkHistogram(boolean validRange, int buckets) {
+		if (!validRange) {
+			throw new IllegalArgumentException("max must be greater than min.");
+		}
+		if (buckets <= 0) {
+			throw new IllegalArgumentException("buckets must be a positive value.");
+		}
+	}
+
+	/**
+	 * Splits its slice in halves down to the sequential threshold, computes the leaves in place and combines the halves,
+	 * the left one first.
+	 */
+	private abstract static class SliceTask extends RecursiveAction {
+
+		final int from;
+
+		final int to;
+
+		final int sequentialThreshold;
+
+		SliceTask(int from, int to, int sequentialThreshold) {
+			this.from = from;
+			this.to = to;
+			this.sequentialThreshold = sequentialThreshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= sequentialThreshold) {
+				computeSequentially(from, to);
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			SliceTask leftTask = subtask(from, middle);
+			SliceTask rightTask = subtask(middle, to);
+			leftTask.fork();
+			rightTask.compute();
+			leftTask.join();
+			combine(leftTask, rightTask);
+		}
+
+		abstract void computeSequentially(int from, int to);
+
+		/**
+		 * A task computing a part of this one, by default a task computing it the same way.
+		 */
+		SliceTask subtask(int from, int to) {
+			final SliceTask parent = this;
+			return new SliceTask(from, to, sequentialThreshold) {
+				@Override
+				void computeSequentially(int from, int to) {
+					parent.computeSequentially(from, to);
+				}
+			};
+		}
+
+		/**
+		 * Combines the results of both halves into this task, nothing by default.
+		 */
+		void combine(SliceTask leftTask, SliceTask rightTask) {
+		}
+	}
+
+	private static class IntReduceTask extends SliceTask {
+
+		private final int[] array;
+
+		private final IntBinaryOperator operator;
+
+		private int result;
+
+		IntReduceTask(int[] array, int from, int to, int sequentialThreshold, int identity,
+				IntBinaryOperator operator) {
+			super(from, to, sequentialThreshold);
+			this.array = array;
+			this.result = identity;
+			this.operator = operator;
+		}
+
+		@Override
+		void computeSequentially(int from, int to) {
+			int value = result;
+			for (int i = from; i < to; i++) {
+				value = operator.applyAsInt(value, array[i]);
+			}
+			result = value;
+		}
+
+		@Override
+		SliceTask subtask(int from, int to) {
+			return new IntReduceTask(array, from, to, sequentialThreshold, result, operator);
+		}
+
+		@Override
+		void combine(SliceTask leftTask, SliceTask rightTask) {
+			result = operator.applyAsInt(((IntReduceTask) leftTask).result, ((IntReduceTask) rightTask).result);
+		}
+	}
+
+	private static class LongReduceTask extends SliceTask {
+
+		private final long[] array;
+
+		private final LongBinaryOperator operator;
+
+		private long result;
+
+		LongReduceTask(long[] array, int from, int to, int sequentialThreshold, long identity,
+				LongBinaryOperator operator) {
+			super(from, to, sequentialThreshold);
+			this.array = array;
+			this.result = identity;
+			this.operator = operator;
+		}
+
+		@Override
+		void computeSequentially(int from, int to) {
+			long value = result;
+			for (int i = from; i < to; i++) {
+				value = operator.applyAsLong(value, array[i]);
+			}
+			result = value;
+		}
+
+		@Override
+		SliceTask subtask(int from, int to) {
+			return new LongReduceTask(array, from, to, sequentialThreshold, result, operator);
+		}
+
+		@Override
+		void combine(SliceTask leftTask, SliceTask rightTask) {
+			result = operator.applyAsLong(((LongReduceTask) leftTask).result, ((LongReduceTask) rightTask).result);
+		}
+	}
+
+	private static class DoubleReduceTask extends SliceTask {
+
+		private final double[] array;
+
+		private final DoubleBinaryOperator operator;
+
+		private double result;
+
+		DoubleReduceTask(double[] array, int from, int to, int sequentialThreshold, double identity,
+				DoubleBinaryOperator operator) {
+			super(from, to, sequentialThreshold);
+			this.array = array;
+			this.result = identity;
+			this.operator = operator;
+		}
+
+		@Override
+		void computeSequentially(int from, int to) {
+			double value = result;
+			for (int i = from; i < to; i++) {
+				value = operator.applyAsDouble(value, array[i]);
+			}
+			result = value;
+		}
+
+		@Override
+		SliceTask subtask(int from, int to) {
+			return new DoubleReduceTask(array, from, to, sequentialThreshold, result, operator);
+		}
+
+		@Override
+		void combine(SliceTask leftTask, SliceTask rightTask) {
+			result = operator.applyAsDouble(((DoubleReduceTask) leftTask).result,
+					((DoubleReduceTask) rightTask).result);
+		}
+	}
+
+	private interface HistogramLeaf {
+		void count(long[] counts, int from, int to);
+	}
+
+	private static class HistogramTask extends SliceTask {
+
+		private final int buckets;
+
+		private final HistogramLeaf leaf;
+
+		// one array per leaf, the right half's counts are added into the left half's.
+		private long[] counts;
+
+		HistogramTask(int from, int to, int sequentialThreshold, int buckets, HistogramLeaf leaf) {
+			super(from, to, sequentialThreshold);
+			this.buckets = buckets;
+			this.leaf = leaf;
+		}
+
+		@Override
+		void computeSequentially(int from, int to) {
+			counts = new long[buckets];
+			leaf.count(counts, from, to);
+		}
+
+		@Override
+		SliceTask subtask(int from, int to) {
+			return new HistogramTask(from, to, sequentialThreshold, buckets, leaf);
+		}
+
+		@Override
+		void combine(SliceTask leftTask, SliceTask rightTask) {
+			long[] leftCounts = ((HistogramTask) leftTask).counts;
+			long[] rightCounts = ((HistogramTask) rightTask).counts;
+			for (int i = 0; i < buckets; i++) {
+				leftCounts[i] += rightCounts[i];
+			}
+			counts = leftCounts;
+		}
+	}
+
+	/**
+	 * Splits a slice in blocks of the sequential threshold, the unit of work of both passes of a prefix sum: the sums of
+	 * the blocks, then the prefix sums inside every block, starting from the sum of the blocks before it.
+	 */
+	private static class BlockScan {
+
+		private final int from;
+
+		private final int to;
+
+		private final int blockSize;
+
+		private final int blockCount;
+
+		BlockScan(int from, int to, int blockSize) {
+			this.from = from;
+			this.to = to;
+			this.blockSize = blockSize;
+			this.blockCount = (int) (((long) to - from + blockSize - 1) / blockSize);
+		}
+
+		abstract class BlockTask extends SliceTask {
+
+			BlockTask() {
+				// splits the range of blocks down to single blocks.
+				super(0, blockCount, 1);
+			}
+
+			@Override
+			void computeSequentially(int fromBlock, int toBlock) {
+				for (int block = fromBlock; block < toBlock; block++) {
+					// the slice bounds of the scan, not the block range of this task.
+					int blockFrom = BlockScan.this.from + block * blockSize;
+					computeBlock(block, blockFrom, Math.min(BlockScan.this.to, blockFrom + blockSize));
+				}
+			}
+
+			abstract void computeBlock(int block, int from, int to);
+		}
+	}
+}
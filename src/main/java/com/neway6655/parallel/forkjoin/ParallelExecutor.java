@@ -1,5 +1,6 @@
 package com.neway6655.parallel.forkjoin;
 
+import com.neway6655.parallel.forkjoin.task.CancellationToken;
 import com.neway6655.parallel.forkjoin.task.ParallelTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,6 +11,10 @@ import java.util.concurrent.*;
 
 /**
  * Created by neway on 3/8/15.
+ *
+ * Runs in its own pool, or in a pool given by the caller, e.g. ForkJoinPool.commonPool() on Java 8+, which it does not
+ * shut down. A computation not finished by its deadline is cancelled: its subtasks stop calling tasks, so it stops
+ * consuming cores once the tasks being called return.
  */
 public class ParallelExecutor<V> {
 
@@ -19,33 +24,130 @@ public class ParallelExecutor<V> {
 
 	public static final int SHUTDOWN_TIMEOUT_IN_SEC = 10;
 
-	private ForkJoinPool forkJoinPool = new ForkJoinPool();
+	// about 4 leaves per worker thread balances the load without too many small subtasks.
+	private static final int LEAVES_PER_THREAD = 4;
 
+	private ForkJoinPool forkJoinPool;
+
+	private boolean ownedPool;
+
+	private long timeoutInMillSec;
+
+	private ParallelArrays parallelArrays;
+
+	public ParallelExecutor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelExecutor(int parallelism) {
+		this(parallelism, DEFAULT_TIMEOUT_IN_SEC, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @param timeout the default deadline of a computation.
+	 */
+	public ParallelExecutor(int parallelism, long timeout, TimeUnit timeUnit) {
+		this(new ForkJoinPool(parallelism), true, timeout, timeUnit);
+	}
+
+	/**
+	 * Runs in the given pool, shared with other users, which is not shut down by {@link #shutdown()}.
+	 *
+	 * @param timeout the default deadline of a computation.
+	 */
+	public ParallelExecutor(ForkJoinPool forkJoinPool, long timeout, TimeUnit timeUnit) {
+		this(forkJoinPool, false, timeout, timeUnit);
+	}
+
+	private ParallelExecutor(ForkJoinPool forkJoinPool, boolean ownedPool, long timeout, TimeUnit timeUnit) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("timeout must be a positive value.");
+		}
+		this.forkJoinPool = forkJoinPool;
+		this.ownedPool = ownedPool;
+		this.timeoutInMillSec = timeUnit.toMillis(timeout);
+		this.parallelArrays = new ParallelArrays(forkJoinPool);
+	}
+
+	/**
+	 * Primitive array operations, run in the pool of this executor.
+	 */
+	public ParallelArrays getParallelArrays() {
+		return parallelArrays;
+	}
+
+	/**
+	 * @deprecated the results are combined by keeping the first non null one, use
+	 *             {@link #parallelProcess(List, Object, Func2)} with a real combiner.
+	 */
+	@Deprecated
 	public V parallelProcess(List<Callable<V>> taskList) {
-		Func2 reduceFunc = new Func2() {
+		Func2<V, V, V> firstNonNull = new Func2<V, V, V>() {
 			@Override
-			public Object call(Object o, Object o2) {
-				System.out.println("result: " + o2);
-				return o;
+			public V call(V result1, V result2) {
+				return result1 != null ? result1 : result2;
 			}
 		};
-		ParallelTask<V> parallelTask = new ParallelTask(taskList, reduceFunc);
+		return parallelProcess(taskList, null, firstNonNull);
+	}
+
+	/**
+	 * Like {@link #parallelProcess(List, Object, Func2, int)}, with a sequential threshold splitting the task list into
+	 * about 4 parts per thread of the pool.
+	 */
+	public V parallelProcess(List<Callable<V>> taskList, V identity, Func2<V, V, V> combiner) {
+		int leaves = forkJoinPool.getParallelism() * LEAVES_PER_THREAD;
+		return parallelProcess(taskList, identity, combiner, Math.max(1, taskList.size() / leaves));
+	}
+
+	/**
+	 * Like {@link #parallelProcess(List, Object, Func2, int, long, TimeUnit, CancellationToken)}, within the default
+	 * deadline of this executor.
+	 */
+	public V parallelProcess(List<Callable<V>> taskList, V identity, Func2<V, V, V> combiner, int sequentialThreshold) {
+		return parallelProcess(taskList, identity, combiner, sequentialThreshold, timeoutInMillSec,
+				TimeUnit.MILLISECONDS, new CancellationToken());
+	}
+
+	/**
+	 * Calls the tasks in the pool and combines their results, see {@link ParallelTask}.
+	 *
+	 * @param identity            the result of no task, combined with any result it gives the same result.
+	 * @param combiner            an associative function combining 2 results, called concurrently.
+	 * @param sequentialThreshold the max number of tasks called one after the other in a subtask.
+	 * @param cancellationToken   cancels the computation when cancelled by the caller, it is cancelled at the deadline
+	 *                            or when the caller is interrupted as well.
+	 * @return the combined result, null if a task fails, or the computation is cancelled or not finished in time.
+	 */
+	public V parallelProcess(List<Callable<V>> taskList, V identity, Func2<V, V, V> combiner, int sequentialThreshold,
+			long timeout, TimeUnit timeUnit, CancellationToken cancellationToken) {
+		ParallelTask<V> parallelTask = new ParallelTask<V>(taskList, identity, combiner, sequentialThreshold,
+				cancellationToken);
 
 		ForkJoinTask<V> result = forkJoinPool.submit(parallelTask);
 		try {
-			return result.get(DEFAULT_TIMEOUT_IN_SEC, TimeUnit.SECONDS);
+			return result.get(timeout, timeUnit);
 		} catch (InterruptedException e) {
-			// ignore interrupted exception.
+			cancel(result, cancellationToken);
+			Thread.currentThread().interrupt();
 		} catch (ExecutionException e) {
 			logger.error("Error when executing tasks.", e);
+			cancel(result, cancellationToken);
+		} catch (CancellationException e) {
+			logger.warn("Executing tasks cancelled.");
 		} catch (TimeoutException e) {
 			logger.error("Executing tasks timeout.", e);
+			cancel(result, cancellationToken);
 		}
 
 		return null;
 	}
 
 	public void shutdown() throws InterruptedException {
+		if (!ownedPool) {
+			return;
+		}
+
 		forkJoinPool.shutdown();
 
 		if (!forkJoinPool.awaitTermination(SHUTDOWN_TIMEOUT_IN_SEC, TimeUnit.SECONDS)) {
@@ -53,4 +155,10 @@ public class ParallelExecutor<V> {
 		}
 	}
 
+	private void cancel(ForkJoinTask<V> result, CancellationToken cancellationToken) {
+		// the token stops the subtasks, cancelling the root task alone leaves them running.
+		cancellationToken.cancel();
+		result.cancel(true);
+	}
+
 }
@@ -0,0 +1,20 @@
+package com.neway6655.parallel.forkjoin.task;
+
+/**
+ * A flag shared by the subtasks of a fork-join computation, checked before each task is called and each subtask is
+ * computed: once cancelled, the computation stops after the tasks being called, instead of calling the remaining ones.
+ *
+ * Long tasks may check it themselves to stop sooner.
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
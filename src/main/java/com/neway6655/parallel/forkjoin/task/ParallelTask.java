@@ -1,57 +1,118 @@
 package com.neway6655.parallel.forkjoin.task;
 
-import com.google.common.collect.Lists;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.google.common.base.Throwables;
 import rx.functions.Func2;
 
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.RecursiveTask;
 
 /**
  * Created by neway on 3/8/15.
+ *
+ * Divides the task list in halves until a part has no more tasks than the sequential threshold, calls the tasks of such
+ * a part in place one after the other, and combines the results of both halves, left before right, so the combiner
+ * needs to be associative but not commutative.
+ *
+ * Once its cancellation token is cancelled, the subtasks stop calling tasks and the computation fails with a
+ * CancellationException. A failing task cancels the token, so the other subtasks stop as well.
  */
 public class ParallelTask<V> extends RecursiveTask<V>{
 
-    private Logger logger = LoggerFactory.getLogger(ParallelTask.class);
-
     private List<Callable<V>> taskList;
 
+    private int from;
+
+    private int to;
+
+    private V identity;
+
     private Func2<V, V, V> reduceFunc;
 
+    private int sequentialThreshold;
+
+    private CancellationToken cancellationToken;
+
     public ParallelTask(List<Callable<V>> taskList, Func2<V, V, V> reduceFunc){
+        this(taskList, null, reduceFunc, 1);
+    }
+
+    /**
+     * @param identity the result of no task, combined with any result it gives the same result.
+     */
+    public ParallelTask(List<Callable<V>> taskList, V identity, Func2<V, V, V> reduceFunc, int sequentialThreshold){
+        this(taskList, identity, reduceFunc, sequentialThreshold, new CancellationToken());
+    }
+
+    public ParallelTask(List<Callable<V>> taskList, V identity, Func2<V, V, V> reduceFunc, int sequentialThreshold,
+            CancellationToken cancellationToken){
+        this(taskList, 0, taskList.size(), identity, reduceFunc, sequentialThreshold, cancellationToken);
+    }
+
+    private ParallelTask(List<Callable<V>> taskList, int from, int to, V identity, Func2<V, V, V> reduceFunc,
+            int sequentialThreshold, CancellationToken cancellationToken){
+        if (sequentialThreshold <= 0) {
+            throw new IllegalArgumentException("sequentialThreshold must be a positive value.");
+        }
         this.taskList = taskList;
+        this.from = from;
+        this.to = to;
+        this.identity = identity;
         this.reduceFunc = reduceFunc;
+        this.sequentialThreshold = sequentialThreshold;
+        this.cancellationToken = cancellationToken;
     }
 
     @Override
     protected V compute() {
-        if (taskList.size() == 1){
+        checkCancelled();
+        if (to - from <= sequentialThreshold){
             try {
-                System.out.println(Thread.currentThread().getName());
-                return taskList.get(0).call();
-            } catch (Exception e) {
-                logger.error("Failed to call task.",e);
-                return null;
+                return computeSequentially();
+            } catch (RuntimeException e) {
+                // a failed leaf fails the whole computation, the other subtasks need not go on.
+                cancellationToken.cancel();
+                throw e;
             }
         }
 
-        List<ParallelTask<V>> parallelTasks = Lists.newArrayList();
-        for (Callable<V> task: taskList){
-            ParallelTask parallelTask = new ParallelTask(Lists.newArrayList(task), null);
-            parallelTask.fork();
-
-            parallelTasks.add(parallelTask);
+        int middle = (from + to) >>> 1;
+        ParallelTask<V> leftTask = new ParallelTask<V>(taskList, from, middle, identity, reduceFunc,
+                sequentialThreshold, cancellationToken);
+        leftTask.fork();
 
+        ParallelTask<V> rightTask = new ParallelTask<V>(taskList, middle, to, identity, reduceFunc,
+                sequentialThreshold, cancellationToken);
+        V rightResult;
+        try {
+            rightResult = rightTask.compute();
+        } catch (RuntimeException e) {
+            // stops the forked left half, which would otherwise run on after the computation failed.
+            cancellationToken.cancel();
+            throw e;
         }
 
-        V result = null;
-        for (ParallelTask<V> parallelTask : parallelTasks){
-            V taskResult = parallelTask.join();
-            result = reduceFunc.call(result, taskResult);
-        }
+        return reduceFunc.call(leftTask.join(), rightResult);
+    }
 
+    private V computeSequentially() {
+        V result = identity;
+        for (int i = from; i < to; i++) {
+            checkCancelled();
+            try {
+                result = reduceFunc.call(result, taskList.get(i).call());
+            } catch (Exception e) {
+                // fails the whole computation, the cause is given by the get of the submitted task.
+                throw Throwables.propagate(e);
+            }
+        }
         return result;
     }
+
+    private void checkCancelled() {
+        if (cancellationToken.isCancelled()) {
+            throw new CancellationException("Parallel task cancelled.");
+        }
+    }
 }
@@ -0,0 +1,47 @@
+package com.neway6655.cache;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	@Test
+	public void testLimitConcurrentLoadings() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 2, 100, TimeUnit.MILLISECONDS);
+
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+
+		limiter.release(10, true);
+		assertTrue(limiter.tryAcquire());
+	}
+
+	@Test
+	public void testBackOffOnSlowLoadingsAndRecover() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 20, 100, TimeUnit.MILLISECONDS);
+
+		for (int i = 0; i < 50; i++) {
+			limiter.tryAcquire();
+			limiter.release(500, true);
+		}
+		assertEquals(2, limiter.getLimit());
+
+		for (int i = 0; i < 50; i++) {
+			limiter.tryAcquire();
+			limiter.release(10, false);
+		}
+		assertEquals(2, limiter.getLimit());
+
+		for (int i = 0; i < 300; i++) {
+			limiter.tryAcquire();
+			limiter.release(10, true);
+		}
+		assertEquals(20, limiter.getLimit());
+	}
+}
@@ -0,0 +1,61 @@
+package com.neway6655.cache;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+public class CacheWarmerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testWarmUpInBatches() throws Exception {
+		FakeRedis redis = new FakeRedis();
+		final AtomicInteger batches = new AtomicInteger();
+		RedisLoadingCache<RedisLoadingCacheTest.Item> cache = RedisLoadingCacheBuilder
+				.newBuilder(redis.newTemplate(), RedisLoadingCacheTest.Item.class).name("test")
+				.expired(60, TimeUnit.SECONDS).refreshBeforeExpired(10, TimeUnit.SECONDS)
+				.nearCache(100, 1, TimeUnit.MINUTES).build(new BatchCacheLoader<RedisLoadingCacheTest.Item>() {
+					@Override
+					public Map<String, RedisLoadingCacheTest.Item> loadAll(Collection<String> keys) {
+						assertTrue(keys.size() <= 10);
+						batches.incrementAndGet();
+						Map<String, RedisLoadingCacheTest.Item> loaded = Maps.newHashMap();
+						for (String key : keys) {
+							loaded.put(key, new RedisLoadingCacheTest.Item(key));
+						}
+						return loaded;
+					}
+				});
+
+		List<String> keys = Lists.newArrayList();
+		for (int i = 0; i < 25; i++) {
+			keys.add("key" + i);
+		}
+
+		CacheWarmer warmer = new CacheWarmer(cache, 10, 2);
+		assertEquals(25, warmer.warmUp(keys, 5, TimeUnit.SECONDS));
+		assertEquals(3, batches.get());
+		assertNotNull(redis.getBytes("key24"));
+		assertEquals(25, cache.getNearCachedKeys().size());
+
+		File snapshot = new File(folder.getRoot(), "keys");
+		CacheWarmer.saveKeySnapshot(cache.getNearCachedKeys(), snapshot);
+		assertEquals(25, CacheWarmer.loadKeySnapshot(snapshot).size());
+		assertEquals(0, CacheWarmer.loadKeySnapshot(new File(folder.getRoot(), "absent")).size());
+	}
+}
@@ -0,0 +1,36 @@
+package com.neway6655.cache;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void testOpenAfterConsecutiveFailuresAndCloseAfterTrial() throws InterruptedException {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(3, 50, TimeUnit.MILLISECONDS);
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(circuitBreaker.allowRequest());
+			circuitBreaker.onFailure();
+		}
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+		assertFalse(circuitBreaker.allowRequest());
+
+		Thread.sleep(60);
+		assertTrue(circuitBreaker.allowRequest());
+		assertFalse(circuitBreaker.allowRequest());
+		circuitBreaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+		Thread.sleep(60);
+		assertTrue(circuitBreaker.allowRequest());
+		circuitBreaker.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+		assertTrue(circuitBreaker.allowRequest());
+	}
+}
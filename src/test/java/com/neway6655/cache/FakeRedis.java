@@ -0,0 +1,359 @@
+package com.neway6655.cache;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory redis stand-in for cache tests, it implements the subset of {@link RedisConnection} commands used by the
+ * cache, any other command fails with {@link UnsupportedOperationException}. Transactions support WATCH, a watched key
+ * counts as modified once it is written, deleted or expired.
+ */
+public class FakeRedis implements RedisConnectionFactory {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final Map<String, Entry> store = Maps.newHashMap();
+
+	private final AtomicInteger commands = new AtomicInteger();
+
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private volatile boolean unavailable;
+
+	public RedisTemplate<String, String> newTemplate() {
+		RedisTemplate<String, String> template = new RedisTemplate<String, String>();
+		template.setConnectionFactory(this);
+		template.setKeySerializer(new StringRedisSerializer());
+		template.setValueSerializer(new StringRedisSerializer());
+		template.afterPropertiesSet();
+		return template;
+	}
+
+	/**
+	 * Number of redis commands executed so far.
+	 */
+	public int commands() {
+		return commands.get();
+	}
+
+	/**
+	 * Number of connections requested so far, including the failed ones while unavailable.
+	 */
+	public int connections() {
+		return connections.get();
+	}
+
+	public void setUnavailable(boolean unavailable) {
+		this.unavailable = unavailable;
+	}
+
+	public synchronized byte[] getBytes(String key) {
+		return get(key);
+	}
+
+	public synchronized void setBytes(String key, byte[] value) {
+		store.put(key, new Entry(value, -1));
+	}
+
+	public synchronized String getString(String key) {
+		byte[] value = get(key);
+		return value == null ? null : new String(value, UTF_8);
+	}
+
+	public synchronized void setString(String key, String value) {
+		store.put(key, new Entry(value.getBytes(UTF_8), -1));
+	}
+
+	public synchronized boolean exists(String key) {
+		return get(key) != null;
+	}
+
+	public synchronized void delete(String key) {
+		store.remove(key);
+	}
+
+	@Override
+	public RedisConnection getConnection() {
+		connections.incrementAndGet();
+		if (unavailable) {
+			throw new RedisConnectionFailureException("Fake redis is unavailable.");
+		}
+		return (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class[] { RedisConnection.class }, new FakeConnection());
+	}
+
+	@Override
+	public boolean getConvertPipelineAndTxResults() {
+		return false;
+	}
+
+	@Override
+	public RedisSentinelConnection getSentinelConnection() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+		return null;
+	}
+
+	private byte[] get(String key) {
+		Entry entry = store.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expireAt > 0 && entry.expireAt <= System.currentTimeMillis()) {
+			store.remove(key);
+			return null;
+		}
+		return entry.value;
+	}
+
+	private static String str(Object bytes) {
+		return new String((byte[]) bytes, UTF_8);
+	}
+
+	private synchronized Object invoke(String name, Object[] args) {
+		commands.incrementAndGet();
+		if ("get".equals(name)) {
+			return get(str(args[0]));
+		}
+		if ("set".equals(name)) {
+			store.put(str(args[0]), new Entry((byte[]) args[1], -1));
+			return null;
+		}
+		if ("setEx".equals(name)) {
+			store.put(str(args[0]), new Entry((byte[]) args[2], System.currentTimeMillis() + (Long) args[1] * 1000));
+			return null;
+		}
+		if ("pSetEx".equals(name)) {
+			store.put(str(args[0]), new Entry((byte[]) args[2], System.currentTimeMillis() + (Long) args[1]));
+			return null;
+		}
+		if ("mGet".equals(name)) {
+			List<byte[]> values = Lists.newArrayList();
+			for (byte[] key : (byte[][]) args[0]) {
+				values.add(get(str(key)));
+			}
+			return values;
+		}
+		if ("del".equals(name)) {
+			long deleted = 0;
+			for (byte[] key : (byte[][]) args[0]) {
+				if (get(str(key)) != null) {
+					deleted++;
+				}
+				store.remove(str(key));
+			}
+			return deleted;
+		}
+		if ("exists".equals(name)) {
+			return get(str(args[0])) != null;
+		}
+		if ("expire".equals(name) || "pExpire".equals(name)) {
+			String key = str(args[0]);
+			byte[] value = get(key);
+			if (value == null) {
+				return false;
+			}
+			long millis = "expire".equals(name) ? (Long) args[1] * 1000 : (Long) args[1];
+			store.put(key, new Entry(value, System.currentTimeMillis() + millis));
+			return true;
+		}
+		if ("ttl".equals(name) || "pTtl".equals(name)) {
+			String key = str(args[0]);
+			if (get(key) == null) {
+				return -2L;
+			}
+			long expireAt = store.get(key).expireAt;
+			if (expireAt < 0) {
+				return -1L;
+			}
+			long millis = expireAt - System.currentTimeMillis();
+			return "ttl".equals(name) ? millis / 1000 : millis;
+		}
+		if ("incr".equals(name)) {
+			String key = str(args[0]);
+			byte[] value = get(key);
+			long incremented = value == null ? 1 : Long.parseLong(str(value)) + 1;
+			store.put(key, new Entry(String.valueOf(incremented).getBytes(UTF_8), -1));
+			return incremented;
+		}
+		if ("publish".equals(name)) {
+			// no subscriber.
+			return 0L;
+		}
+		if ("execute".equals(name) && "SET".equalsIgnoreCase((String) args[0])) {
+			return executeSet((byte[][]) args[1]);
+		}
+		throw new UnsupportedOperationException("Fake redis does not support command: " + name);
+	}
+
+	/**
+	 * SET key value [EX seconds|PX milliseconds] [NX|XX]
+	 */
+	private Object executeSet(byte[][] args) {
+		String key = str(args[0]);
+		long expireAt = -1;
+		boolean exists = get(key) != null;
+		for (int i = 2; i < args.length; i++) {
+			String option = str(args[i]).toUpperCase();
+			if ("NX".equals(option) && exists || "XX".equals(option) && !exists) {
+				return null;
+			}
+			if ("EX".equals(option)) {
+				expireAt = System.currentTimeMillis() + Long.parseLong(str(args[++i])) * 1000;
+			} else if ("PX".equals(option)) {
+				expireAt = System.currentTimeMillis() + Long.parseLong(str(args[++i]));
+			}
+		}
+		store.put(key, new Entry(args[1], expireAt));
+		return "OK".getBytes(UTF_8);
+	}
+
+	private static class Entry {
+
+		private final byte[] value;
+
+		private final long expireAt;
+
+		Entry(byte[] value, long expireAt) {
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+	}
+
+	private class FakeConnection implements InvocationHandler {
+
+		private boolean closed;
+
+		private List<Object> pipelinedResults;
+
+		private final Map<String, Entry> watchedEntries = Maps.newHashMap();
+
+		private List<Object[]> queuedCommands;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("close".equals(name)) {
+				closed = true;
+				return null;
+			}
+			if ("isClosed".equals(name)) {
+				return closed;
+			}
+			if ("isQueueing".equals(name)) {
+				return queuedCommands != null;
+			}
+			if ("isPipelined".equals(name)) {
+				return pipelinedResults != null;
+			}
+			if ("openPipeline".equals(name)) {
+				pipelinedResults = Lists.newArrayList();
+				return null;
+			}
+			if ("closePipeline".equals(name)) {
+				List<Object> results = pipelinedResults;
+				pipelinedResults = null;
+				return results;
+			}
+			if ("getNativeConnection".equals(name)) {
+				return this;
+			}
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("toString".equals(name)) {
+				return "FakeRedisConnection";
+			}
+			if (unavailable) {
+				throw new RedisConnectionFailureException("Fake redis is unavailable.");
+			}
+
+			if ("watch".equals(name)) {
+				watch((byte[][]) args[0]);
+				return null;
+			}
+			if ("unwatch".equals(name)) {
+				watchedEntries.clear();
+				return null;
+			}
+			if ("multi".equals(name)) {
+				queuedCommands = Lists.newArrayList();
+				return null;
+			}
+			if ("discard".equals(name)) {
+				queuedCommands = null;
+				watchedEntries.clear();
+				return null;
+			}
+			if ("exec".equals(name)) {
+				return exec();
+			}
+			if (queuedCommands != null) {
+				queuedCommands.add(new Object[] { name, args });
+				return null;
+			}
+
+			Object result = FakeRedis.this.invoke(name, args);
+			if (pipelinedResults != null) {
+				pipelinedResults.add(result);
+				return null;
+			}
+			return result;
+		}
+
+		private void watch(byte[][] keys) {
+			synchronized (FakeRedis.this) {
+				for (byte[] key : keys) {
+					get(str(key));
+					watchedEntries.put(str(key), store.get(str(key)));
+				}
+			}
+		}
+
+		/**
+		 * @return null if a watched key has been modified, in which case no queued command is executed.
+		 */
+		private List<Object> exec() {
+			synchronized (FakeRedis.this) {
+				List<Object[]> transaction = queuedCommands;
+				queuedCommands = null;
+				boolean modified = false;
+				for (Map.Entry<String, Entry> watchedEntry : watchedEntries.entrySet()) {
+					get(watchedEntry.getKey());
+					modified |= store.get(watchedEntry.getKey()) != watchedEntry.getValue();
+				}
+				watchedEntries.clear();
+				if (modified) {
+					return null;
+				}
+
+				List<Object> results = Lists.newArrayList();
+				for (Object[] command : transaction) {
+					results.add(FakeRedis.this.invoke((String) command[0], (Object[]) command[1]));
+				}
+				return results;
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.neway6655.cache;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class HotKeyDetectorTest {
+
+	@Test
+	public void testDetectHotKeys() {
+		HotKeyDetector detector = new HotKeyDetector(2, 50, 10000);
+		for (int i = 0; i < 3000; i++) {
+			detector.record("cold" + i);
+			if (i % 10 == 0) {
+				detector.record("hot");
+			}
+			if (i % 20 == 0) {
+				detector.record("warm");
+			}
+			if (i % 50 == 0) {
+				detector.record("lukewarm");
+			}
+		}
+
+		Map<String, Integer> hotKeys = detector.getHotKeys();
+		assertEquals(2, hotKeys.size());
+		assertEquals("hot", hotKeys.keySet().iterator().next());
+		assertTrue(hotKeys.containsKey("warm"));
+		assertFalse(detector.isHot("lukewarm"));
+		assertFalse(detector.isHot("cold0"));
+	}
+
+	@Test
+	public void testHotKeysCoolDown() {
+		HotKeyDetector detector = new HotKeyDetector(10, 50, 1000);
+		for (int i = 0; i < 100; i++) {
+			detector.record("hot");
+		}
+		assertTrue(detector.isHot("hot"));
+
+		for (int i = 0; i < 3000; i++) {
+			detector.record("other" + i);
+		}
+		assertFalse(detector.isHot("hot"));
+	}
+
+	@Test
+	public void testCountsHalvedEverySampleSizeReads() {
+		HotKeyDetector detector = new HotKeyDetector(10, 50, 1000);
+		for (int i = 0; i < 100; i++) {
+			detector.record("hot");
+		}
+		for (int i = 0; i < 900; i++) {
+			detector.record("other" + i);
+		}
+		// halved once after 1000 reads.
+		assertEquals(50, (int) detector.getHotKeys().get("hot"));
+
+		for (int i = 0; i < 999; i++) {
+			detector.record("another" + i);
+		}
+		assertTrue(detector.isHot("hot"));
+		detector.record("last");
+		assertFalse(detector.isHot("hot"));
+	}
+}
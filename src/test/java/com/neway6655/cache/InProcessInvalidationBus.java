@@ -0,0 +1,54 @@
+package com.neway6655.cache;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * In-process stand-in of {@link RedisInvalidationBus} for tests, messages are delivered synchronously to all
+ * subscribers of the channel, including the publisher's own.
+ */
+public class InProcessInvalidationBus implements InvalidationBus {
+
+	private final ListMultimap<String, Listener> listeners = ArrayListMultimap.create();
+
+	private final List<InvalidationMessage> messages = Lists.newArrayList();
+
+	@Override
+	public void publish(String channel, InvalidationMessage message) {
+		List<Listener> channelListeners;
+		synchronized (this) {
+			messages.add(message);
+			channelListeners = Lists.newArrayList(listeners.get(channel));
+		}
+		for (Listener listener : channelListeners) {
+			listener.onMessage(message);
+		}
+	}
+
+	@Override
+	public synchronized void subscribe(String channel, Listener listener) {
+		listeners.put(channel, listener);
+	}
+
+	@Override
+	public synchronized void unsubscribe(String channel, Listener listener) {
+		listeners.remove(channel, listener);
+	}
+
+	/**
+	 * Number of listeners subscribed to the channel.
+	 */
+	public synchronized int listeners(String channel) {
+		return listeners.get(channel).size();
+	}
+
+	/**
+	 * Messages published so far.
+	 */
+	public synchronized List<InvalidationMessage> messages() {
+		return Lists.newArrayList(messages);
+	}
+}
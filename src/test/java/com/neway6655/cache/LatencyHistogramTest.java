@@ -0,0 +1,43 @@
+package com.neway6655.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBucketsCoverAllValues() {
+		for (long value : new long[] { 0, 1, 7, 8, 9, 15, 16, 1000, 123456789, Long.MAX_VALUE }) {
+			int bucket = LatencyHistogram.bucketOf(value);
+			assertTrue(value <= LatencyHistogram.highestValueOf(bucket));
+			assertTrue(bucket == 0 || value > LatencyHistogram.highestValueOf(bucket - 1));
+		}
+	}
+
+	@Test
+	public void testPercentilesWithinRelativeError() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Random random = new Random(42);
+		long[] values = new long[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) (Math.exp(random.nextDouble() * 20));
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(values.length, snapshot.getCount());
+		assertEquals(values[values.length - 1], snapshot.getMax());
+		for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+			long expected = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+			long actual = snapshot.getPercentile(percentile);
+			assertTrue(actual >= expected);
+			assertTrue(actual <= expected * 1.125 + 1);
+		}
+	}
+}
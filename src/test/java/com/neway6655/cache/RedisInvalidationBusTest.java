@@ -0,0 +1,46 @@
+package com.neway6655.cache;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+public class RedisInvalidationBusTest {
+
+	private FakeRedis redis = new FakeRedis();
+
+	@Test
+	public void testPublishFailsFastWhileRedisUnavailable() {
+		RedisInvalidationBus bus = new RedisInvalidationBus(redis.newTemplate(),
+				new RedisHealthCheck(1, TimeUnit.MINUTES));
+		InvalidationMessage message = new InvalidationMessage("sender", Lists.newArrayList("key"));
+
+		bus.publish("channel", message);
+		assertEquals(1, redis.commands());
+
+		redis.setUnavailable(true);
+		publishAndExpectFailure(bus, message);
+		int connections = redis.connections();
+
+		// redis is skipped without waiting for a connection, until the retry interval is over.
+		redis.setUnavailable(false);
+		publishAndExpectFailure(bus, message);
+		assertEquals(connections, redis.connections());
+		assertEquals(1, redis.commands());
+
+		bus.close();
+	}
+
+	private void publishAndExpectFailure(RedisInvalidationBus bus, InvalidationMessage message) {
+		try {
+			bus.publish("channel", message);
+			fail("Publish should fail while redis is unavailable.");
+		} catch (RedisConnectionFailureException e) {
+			// expected.
+		}
+	}
+}
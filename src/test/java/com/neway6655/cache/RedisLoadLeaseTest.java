@@ -0,0 +1,87 @@
+package com.neway6655.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class RedisLoadLeaseTest {
+
+	private FakeRedis redis;
+
+	private RedisLoadLease loadLease;
+
+	@Before
+	public void setUp() {
+		redis = new FakeRedis();
+		loadLease = new RedisLoadLease(redis.newTemplate(), "test", 100, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testLeaseIsExclusiveUntilReleased() {
+		Long token = loadLease.tryAcquire("key");
+		assertNotNull(token);
+		assertTrue(loadLease.isHeld("key"));
+		assertNull(loadLease.tryAcquire("key"));
+
+		loadLease.release("key", token);
+		assertFalse(loadLease.isHeld("key"));
+		assertNotNull(loadLease.tryAcquire("key"));
+	}
+
+	@Test
+	public void testExpiredLeaseIsSupersededByLaterHolder() throws InterruptedException {
+		Long token = loadLease.tryAcquire("key");
+		Thread.sleep(150);
+		assertFalse(loadLease.isHeld("key"));
+
+		Long laterToken = loadLease.tryAcquire("key");
+		assertTrue(laterToken > token);
+		assertTrue(loadLease.isSuperseded("key", token));
+
+		// releasing with the expired token must not release the later holder's lease.
+		loadLease.release("key", token);
+		assertTrue(loadLease.isHeld("key"));
+	}
+
+	@Test
+	public void testWriteIsFencedWhenLeaseChangesHands() {
+		final Long token = loadLease.tryAcquire("key");
+		assertTrue(loadLease.executeIfNotSuperseded("key", token, write("value")));
+		assertEquals("value", redis.getString("key"));
+
+		// the lease expires and is acquired by another node after the token has been checked, before the write.
+		assertFalse(loadLease.executeIfNotSuperseded("key", token, new RedisCallback<Object>() {
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				Uninterruptibles.sleepUninterruptibly(150, TimeUnit.MILLISECONDS);
+				assertNotNull(loadLease.tryAcquire("key"));
+				return write("stale").doInRedis(connection);
+			}
+		}));
+		assertEquals("value", redis.getString("key"));
+		assertFalse(loadLease.executeIfNotSuperseded("key", token, write("stale")));
+		assertEquals("value", redis.getString("key"));
+	}
+
+	private static RedisCallback<Object> write(final String value) {
+		return new RedisCallback<Object>() {
+			@Override
+			public Object doInRedis(RedisConnection connection) throws DataAccessException {
+				connection.set("key".getBytes(Charsets.UTF_8), value.getBytes(Charsets.UTF_8));
+				return null;
+			}
+		};
+	}
+}
@@ -0,0 +1,797 @@
+package com.neway6655.cache;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class RedisLoadingCacheTest {
+
+	private FakeRedis redis;
+
+	@Before
+	public void setUp() {
+		redis = new FakeRedis();
+	}
+
+	@Test
+	public void testGetCachedValue() {
+		RedisLoadingCache<Item> cache = newBuilder().build(new ItemLoader("loaded"));
+
+		assertEquals("loaded", cache.get("key").getValue());
+		byte[] value = redis.getBytes("key");
+		assertNotNull(value);
+		assertTrue(CachedValueLayout.getExpiredTimeInMillis(value) > System.currentTimeMillis());
+		assertEquals("loaded", cache.get("key").getValue());
+	}
+
+	@Test
+	public void testNearCacheServesHitsWithoutRedis() {
+		RedisLoadingCache<Item> cache = newBuilder().nearCache(100, 1, TimeUnit.MINUTES).build(new ItemLoader("loaded"));
+
+		assertEquals("loaded", cache.get("key").getValue());
+
+		int commands = redis.commands();
+		for (int i = 0; i < 10; i++) {
+			assertEquals("loaded", cache.get("key").getValue());
+		}
+		assertEquals(commands, redis.commands());
+	}
+
+	@Test
+	public void testGetAllLoadsMissedKeysInOneBatch() {
+		final List<Collection<String>> batches = Lists.newArrayList();
+		RedisLoadingCache<Item> cache = newBuilder().build(new BatchCacheLoader<Item>() {
+			@Override
+			public Map<String, Item> loadAll(Collection<String> keys) {
+				batches.add(Lists.newArrayList(keys));
+				Map<String, Item> loaded = Maps.newHashMap();
+				for (String key : keys) {
+					if (!"absent".equals(key)) {
+						loaded.put(key, new Item("loaded-" + key));
+					}
+				}
+				return loaded;
+			}
+		});
+		cache.getAll(Lists.newArrayList("a"));
+		batches.clear();
+		int connections = redis.connections();
+
+		Map<String, Item> result = cache.getAll(Lists.newArrayList("a", "b", "c", "absent"));
+
+		// one connection to read the keys, one to write the loaded values back.
+		assertEquals(connections + 2, redis.connections());
+
+		assertEquals(3, result.size());
+		assertEquals("loaded-b", result.get("b").getValue());
+		assertFalse(result.containsKey("absent"));
+		assertEquals(1, batches.size());
+		assertEquals(Lists.newArrayList("b", "c", "absent"), batches.get(0));
+		assertNotNull(redis.getString("c"));
+	}
+
+	@Test
+	public void testConcurrentMissesShareOneLoading() throws Exception {
+		final AtomicInteger loads = new AtomicInteger();
+		final RedisLoadingCache<Item> cache = newBuilder().build(new CacheLoader<Item>() {
+			@Override
+			public Item load(String key) {
+				loads.incrementAndGet();
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					// ignore.
+				}
+				return new Item("loaded");
+			}
+		});
+
+		ExecutorService callers = Executors.newFixedThreadPool(10);
+		List<Future<Item>> results = Lists.newArrayList();
+		for (int i = 0; i < 10; i++) {
+			results.add(callers.submit(new Callable<Item>() {
+				@Override
+				public Item call() {
+					return cache.get("key");
+				}
+			}));
+		}
+
+		for (Future<Item> result : results) {
+			assertEquals("loaded", result.get().getValue());
+		}
+		assertEquals(1, loads.get());
+		callers.shutdown();
+	}
+
+	@Test
+	public void testOnlyOneNodeLoadsKeyWithDistributedLoading() throws Exception {
+		final AtomicInteger loads = new AtomicInteger();
+		CacheLoader<Item> loader = new CacheLoader<Item>() {
+			@Override
+			public Item load(String key) {
+				loads.incrementAndGet();
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					// ignore.
+				}
+				return new Item("loaded");
+			}
+		};
+
+		// each cache stands for a node sharing the same redis.
+		List<RedisLoadingCache<Item>> nodes = Lists.newArrayList();
+		for (int i = 0; i < 5; i++) {
+			nodes.add(newBuilder().distributedLoading(1, TimeUnit.SECONDS).build(loader));
+		}
+
+		ExecutorService callers = Executors.newFixedThreadPool(nodes.size());
+		List<Future<Item>> results = Lists.newArrayList();
+		for (final RedisLoadingCache<Item> node : nodes) {
+			results.add(callers.submit(new Callable<Item>() {
+				@Override
+				public Item call() {
+					return node.get("key");
+				}
+			}));
+		}
+
+		for (Future<Item> result : results) {
+			assertEquals("loaded", result.get().getValue());
+		}
+		assertEquals(1, loads.get());
+		assertFalse(redis.exists("test:lease:key"));
+		callers.shutdown();
+	}
+
+	@Test
+	public void testLoadedValueIsNotWrittenOverLaterLeaseHolder() {
+		final RedisLoadLease otherNode = new RedisLoadLease(redis.newTemplate(), "test", 1, TimeUnit.SECONDS);
+		RedisLoadingCache<Item> cache = newBuilder().distributedLoading(100, TimeUnit.MILLISECONDS)
+				.build(new CacheLoader<Item>() {
+					@Override
+					public Item load(String key) {
+						// the lease expires while loading, and another node takes it over before the write.
+						Uninterruptibles.sleepUninterruptibly(150, TimeUnit.MILLISECONDS);
+						assertNotNull(otherNode.tryAcquire(key));
+						return new Item("stale");
+					}
+				});
+
+		assertEquals("stale", cache.get("key").getValue());
+		assertFalse(redis.exists("key"));
+		assertTrue(redis.exists("test:lease:key"));
+	}
+
+	@Test
+	public void testReadJsonWrittenByEarlierVersion() {
+		redis.setString("key", "{\"expiredTime\":" + (System.currentTimeMillis() / 1000 + 60) + ",\"value\":\"cached\"}");
+		RedisLoadingCache<Item> cache = newBuilder().build(new ItemLoader("loaded"));
+
+		assertEquals("cached", cache.get("key").getValue());
+	}
+
+	@Test
+	public void testReloadValueWrittenWithPreviousLayoutVersion() throws Exception {
+		// version 1 header: magic, version and expired time only.
+		byte[] payload = JacksonCacheCodec.json().encode(new Item("cached"));
+		byte[] value = new byte[10 + payload.length];
+		value[0] = (byte) 0xca;
+		value[1] = 1;
+		long expiredTime = System.currentTimeMillis() + 60000;
+		for (int i = 0; i < 8; i++) {
+			value[2 + i] = (byte) (expiredTime >>> (56 - 8 * i));
+		}
+		System.arraycopy(payload, 0, value, 10, payload.length);
+		redis.setBytes("key", value);
+		RedisLoadingCache<Item> cache = newBuilder().build(new ItemLoader("loaded"));
+
+		assertEquals("loaded", cache.get("key").getValue());
+		assertFalse(CachedValueLayout.hasOtherVersion(redis.getBytes("key")));
+	}
+
+	@Test
+	public void testReloadValueWrittenWithAnotherCodec() throws Exception {
+		RedisLoadingCache<Item> smileCache = newBuilder().codec(JacksonCacheCodec.smile()).build(new ItemLoader("smile"));
+		smileCache.get("key");
+		smileCache.get("other");
+		RedisLoadingCache<Item> jsonCache = newBuilder().build(new ItemLoader("json"));
+
+		assertEquals("json", jsonCache.get("key").getValue());
+		assertEquals("json", jsonCache.getAsync("other").get().getValue());
+		// the reloaded value is written back with the new codec.
+		assertEquals("json", newBuilder().build(new ItemLoader("reloaded")).get("key").getValue());
+	}
+
+	@Test
+	public void testSmileCodecWithCompression() {
+		String largeValue = StringUtils.repeat("large", 200);
+		RedisLoadingCache<Item> cache = newBuilder().codec(JacksonCacheCodec.smile()).compressAbove(256)
+				.build(new ItemLoader(largeValue));
+
+		assertEquals(largeValue, cache.get("key").getValue());
+		assertTrue(redis.getString("key").length() < largeValue.length());
+		assertEquals(largeValue, cache.get("key").getValue());
+	}
+
+	@Test
+	public void testEarlyRefreshBeforeRefreshWindow() throws Exception {
+		CountingItemLoader loader = new CountingItemLoader();
+		RedisLoadingCache<Item> cache = newBuilder().build(loader);
+		RedisLoadingCache<Item> earlyRefreshCache = newBuilder().earlyRefresh(1.0).build(loader);
+
+		// expires 500ms before entering the refresh window, and took 1s to load.
+		long expiredTime = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10) + 500;
+		byte[] payload = JacksonCacheCodec.json().encode(new Item("cached"));
+		redis.setBytes("key", CachedValueLayout.wrap(expiredTime, 1000, payload));
+
+		for (int i = 0; i < 20; i++) {
+			assertEquals("cached", cache.get("key").getValue());
+		}
+		Thread.sleep(100);
+		assertEquals(0, loader.loads.get());
+
+		for (int i = 0; i < 20; i++) {
+			earlyRefreshCache.get("key");
+		}
+		Thread.sleep(100);
+		assertTrue(loader.loads.get() > 0);
+	}
+
+	@Test
+	public void testEarlyRefreshOfNearCacheHits() {
+		final AtomicInteger loads = new AtomicInteger();
+		RedisLoadingCache<Item> cache = newBuilder().nearCache(100, 1, TimeUnit.MINUTES).earlyRefresh(1000)
+				.build(new CacheLoader<Item>() {
+					@Override
+					public Item load(String key) {
+						if (loads.incrementAndGet() == 1) {
+							Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+						}
+						return new Item("loaded");
+					}
+				});
+		cache.get("key");
+
+		// a load of 200ms with a beta of 1000 refreshes about 3 in 4 reads, 50s before the refresh window.
+		for (int i = 0; i < 20; i++) {
+			assertEquals("loaded", cache.get("key").getValue());
+		}
+		Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+		assertTrue(loads.get() > 1);
+	}
+
+	@Test
+	public void testSubSecondTtlJitter() {
+		RedisLoadingCache<Item> cache = newBuilder().ttlJitter(500, TimeUnit.MILLISECONDS)
+				.build(new ItemLoader("loaded"));
+
+		long minExpiredTime = Long.MAX_VALUE;
+		long maxExpiredTime = 0;
+		for (int i = 0; i < 50; i++) {
+			cache.get("key" + i);
+			long expiredTime = CachedValueLayout.getExpiredTimeInMillis(redis.getBytes("key" + i));
+			minExpiredTime = Math.min(minExpiredTime, expiredTime);
+			maxExpiredTime = Math.max(maxExpiredTime, expiredTime);
+		}
+
+		assertTrue(maxExpiredTime - minExpiredTime >= 100);
+	}
+
+	@Test
+	public void testTtlJitter() {
+		RedisLoadingCache<Item> cache = newBuilder().ttlJitter(30, TimeUnit.SECONDS).build(new ItemLoader("loaded"));
+
+		long minExpiredTime = Long.MAX_VALUE;
+		long maxExpiredTime = 0;
+		for (int i = 0; i < 50; i++) {
+			cache.get("key" + i);
+			long expiredTime = CachedValueLayout.getExpiredTimeInMillis(redis.getBytes("key" + i));
+			minExpiredTime = Math.min(minExpiredTime, expiredTime);
+			maxExpiredTime = Math.max(maxExpiredTime, expiredTime);
+		}
+
+		long now = System.currentTimeMillis();
+		assertTrue(minExpiredTime >= now + TimeUnit.SECONDS.toMillis(58));
+		assertTrue(maxExpiredTime <= now + TimeUnit.SECONDS.toMillis(91));
+		assertTrue(maxExpiredTime - minExpiredTime >= TimeUnit.SECONDS.toMillis(5));
+	}
+
+	@Test
+	public void testSaturatedRefreshExecutorRejectsLoading() throws Exception {
+		final RedisLoadingCache<Item> cache = newBuilder().refreshThreads(1).refreshQueueCapacity(1)
+				.loadingTimeout(5, TimeUnit.SECONDS).build(new CacheLoader<Item>() {
+					@Override
+					public Item load(String key) {
+						try {
+							Thread.sleep(300);
+						} catch (InterruptedException e) {
+							// ignore.
+						}
+						return new Item("loaded");
+					}
+				});
+
+		// one loading runs and one is queued, so the executor is saturated.
+		ExecutorService callers = Executors.newFixedThreadPool(2);
+		for (int i = 0; i < 2; i++) {
+			final String key = "key" + i;
+			callers.submit(new Callable<Item>() {
+				@Override
+				public Item call() {
+					return cache.get(key);
+				}
+			});
+		}
+		Thread.sleep(100);
+		assertEquals(1, cache.getRefreshQueueSize());
+
+		long startTime = System.currentTimeMillis();
+		assertNull(cache.get("rejected"));
+		assertTrue(System.currentTimeMillis() - startTime < 200);
+
+		callers.shutdown();
+		cache.close();
+	}
+
+	@Test
+	public void testSharedRefreshExecutorIsNotShutDownOnClose() {
+		ExecutorService sharedExecutor = RefreshExecutors.newBoundedExecutor("shared", 2, 100,
+				RefreshExecutors.RejectionPolicy.CALLER_RUNS);
+		RedisLoadingCache<Item> cache1 = newBuilder().refreshExecutor(sharedExecutor).build(new ItemLoader("1"));
+		RedisLoadingCache<Item> cache2 = newBuilder().refreshExecutor(sharedExecutor).build(new ItemLoader("2"));
+
+		assertEquals("1", cache1.get("key1").getValue());
+		cache1.close();
+		assertFalse(sharedExecutor.isShutdown());
+		assertEquals("2", cache2.get("key2").getValue());
+
+		sharedExecutor.shutdown();
+	}
+
+	@Test
+	public void testServeStaleValueWhenRedisIsUnavailable() {
+		CountingItemLoader loader = new CountingItemLoader();
+		RedisLoadingCache<Item> cache = newBuilder().staleIfError(100, 1, TimeUnit.MINUTES)
+				.redisRetryInterval(1, TimeUnit.MINUTES).build(loader);
+		assertEquals("loaded", cache.get("key").getValue());
+		assertEquals(1, loader.loads.get());
+
+		redis.setUnavailable(true);
+		int connections = redis.connections();
+		for (int i = 0; i < 10; i++) {
+			assertEquals("loaded", cache.get("key").getValue());
+		}
+		assertEquals(1, loader.loads.get());
+		// only the first call finds out redis is unavailable, the others skip it until the retry interval passed.
+		assertEquals(connections + 1, redis.connections());
+	}
+
+	@Test
+	public void testServeStaleValueWhenLoadingFails() {
+		final AtomicInteger loads = new AtomicInteger();
+		RedisLoadingCache<Item> cache = newBuilder().staleIfError(100, 1, TimeUnit.MINUTES).build(new CacheLoader<Item>() {
+			@Override
+			public Item load(String key) {
+				if (loads.incrementAndGet() > 1) {
+					throw new IllegalStateException("Backend is down.");
+				}
+				return new Item("loaded");
+			}
+		});
+		assertEquals("loaded", cache.get("key").getValue());
+
+		redis.delete("key");
+		assertEquals("loaded", cache.get("key").getValue());
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testRecordStats() {
+		RedisLoadingCache<Item> cache = newBuilder().recordStats().build(new ItemLoader("loaded"));
+		assertNull(newBuilder().build(new ItemLoader("loaded")).getStats());
+
+		cache.get("key");
+		cache.get("key");
+		cache.getAll(Lists.newArrayList("key", "other"));
+		redis.setString("corrupted", "corrupted");
+		cache.get("corrupted");
+
+		CacheStats stats = cache.getStats();
+		assertEquals(2, stats.getRedisHitCount());
+		assertEquals(3, stats.getMissCount());
+		assertEquals(1, stats.getDecodeFailureCount());
+		// the corrupted value is reloaded.
+		assertEquals(3, stats.getLoadSuccessCount());
+		assertEquals(3, stats.getLoadLatency().getCount());
+		assertEquals(7, stats.getRedisLatency().getCount());
+		assertEquals(0, stats.getRedisErrorCount());
+		assertEquals(0, stats.getRefreshQueueSize());
+	}
+
+	@Test
+	public void testGetAsyncDoesNotBlockOnLoading() throws Exception {
+		RedisLoadingCache<Item> cache = newBuilder().build(new CacheLoader<Item>() {
+			@Override
+			public Item load(String key) {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					// ignore.
+				}
+				return new Item("loaded");
+			}
+		});
+
+		long startTime = System.currentTimeMillis();
+		ListenableFuture<Item> future = cache.getAsync("key");
+		assertTrue(System.currentTimeMillis() - startTime < 100);
+		assertFalse(future.isDone());
+		assertEquals("loaded", future.get(1, TimeUnit.SECONDS).getValue());
+
+		assertEquals("loaded", cache.getAsync("key").get(100, TimeUnit.MILLISECONDS).getValue());
+		assertEquals("loaded", cache.getObservable("key").toBlocking().single().getValue());
+	}
+
+	@Test
+	public void testGetAsyncTimesOutWithNull() throws Exception {
+		RedisLoadingCache<Item> cache = newBuilder().loadingTimeout(100, TimeUnit.MILLISECONDS)
+				.build(new CacheLoader<Item>() {
+					@Override
+					public Item load(String key) {
+						try {
+							Thread.sleep(500);
+						} catch (InterruptedException e) {
+							// ignore.
+						}
+						return new Item("loaded");
+					}
+				});
+
+		assertNull(cache.getAsync("key").get(300, TimeUnit.MILLISECONDS));
+		assertTrue(cache.getObservable("other").isEmpty().toBlocking().single());
+	}
+
+	@Test
+	public void testGetAsyncServesStaleValueWhenRedisIsUnavailable() throws Exception {
+		RedisLoadingCache<Item> cache = newBuilder().staleIfError(100, 1, TimeUnit.MINUTES)
+				.build(new ItemLoader("loaded"));
+		assertEquals("loaded", cache.getAsync("key").get(1, TimeUnit.SECONDS).getValue());
+
+		redis.setUnavailable(true);
+		assertEquals("loaded", cache.getAsync("key").get(1, TimeUnit.SECONDS).getValue());
+		assertEquals("loaded", cache.getAsync("other").get(1, TimeUnit.SECONDS).getValue());
+	}
+
+	@Test
+	public void testHotKeysArePinnedInProcess() {
+		RedisLoadingCache<Item> cache = newBuilder().hotKeys(10, 5, 1, TimeUnit.MINUTES).build(new ItemLoader("loaded"));
+		cache.get("cold");
+		for (int i = 0; i < 10; i++) {
+			cache.get("hot");
+		}
+		assertTrue(cache.getHotKeys().containsKey("hot"));
+		assertFalse(cache.getHotKeys().containsKey("cold"));
+
+		int commands = redis.commands();
+		int reads = cache.getHotKeys().get("hot");
+		for (int i = 0; i < 10; i++) {
+			assertEquals("loaded", cache.get("hot").getValue());
+		}
+		assertEquals(commands, redis.commands());
+		// the reads served by the pinned copy keep the key hot.
+		assertEquals(reads + 10, (int) cache.getHotKeys().get("hot"));
+		cache.get("cold");
+		assertEquals(commands + 1, redis.commands());
+	}
+
+	@Test
+	public void testNegativeCaching() {
+		final AtomicInteger loads = new AtomicInteger();
+		CacheLoader<Item> loader = new CacheLoader<Item>() {
+			@Override
+			public Item load(String key) {
+				loads.incrementAndGet();
+				return null;
+			}
+		};
+		RedisLoadingCache<Item> cache = newBuilder().negativeCaching(10, TimeUnit.SECONDS, 100).build(loader);
+
+		assertNull(cache.get("absent"));
+		assertTrue(CachedValueLayout.isTombstone(redis.getBytes("absent")));
+		int commands = redis.commands();
+		assertNull(cache.get("absent"));
+		assertEquals(commands, redis.commands());
+
+		// another node reads the tombstone from redis.
+		RedisLoadingCache<Item> otherCache = newBuilder().negativeCaching(10, TimeUnit.SECONDS, 100).build(loader);
+		assertNull(otherCache.get("absent"));
+		assertTrue(otherCache.getAll(Lists.newArrayList("absent", "other")).isEmpty());
+		assertTrue(CachedValueLayout.isTombstone(redis.getBytes("other")));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testRefusedOrFailedBatchLoadingNotCachedAsAbsent() throws InterruptedException {
+		final AtomicBoolean failing = new AtomicBoolean();
+		CacheLoader<Item> loader = new CacheLoader<Item>() {
+			@Override
+			public Item load(String key) {
+				if (failing.get()) {
+					throw new IllegalStateException("backend is down");
+				}
+				return new Item("loaded-" + key);
+			}
+		};
+		RedisLoadingCache<Item> cache = newBuilder().negativeCaching(10, TimeUnit.SECONDS, 100)
+				.circuitBreaker(1, 200, TimeUnit.MILLISECONDS).staleIfError(100, 1, TimeUnit.MINUTES).build(loader);
+
+		assertEquals("loaded-stale", cache.getAll(Lists.newArrayList("stale")).get("stale").getValue());
+		redis.delete("stale");
+
+		// the failure opens the circuit breaker, the stale value is served.
+		failing.set(true);
+		Map<String, Item> result = cache.getAll(Lists.newArrayList("key", "stale"));
+		assertEquals("loaded-stale", result.get("stale").getValue());
+		assertFalse(result.containsKey("key"));
+		assertNull(redis.getBytes("key"));
+
+		// the loading is refused by the open circuit breaker.
+		failing.set(false);
+		assertTrue(cache.getAll(Lists.newArrayList("key")).isEmpty());
+		assertNull(redis.getBytes("key"));
+
+		Thread.sleep(250);
+		assertEquals("loaded-key", cache.getAll(Lists.newArrayList("key")).get("key").getValue());
+	}
+
+	@Test
+	public void testKnownKeyFilter() {
+		CountingItemLoader loader = new CountingItemLoader();
+		KnownKeyFilter knownKeys = new KnownKeyFilter(1000, 0.001);
+		knownKeys.put("known");
+		RedisLoadingCache<Item> cache = newBuilder().knownKeys(knownKeys).recordStats().build(loader);
+
+		assertNull(cache.get("unknown"));
+		assertEquals(0, redis.commands());
+		assertEquals("loaded", cache.get("known").getValue());
+		assertEquals(1, loader.loads.get());
+		assertEquals(1, cache.getStats().getNegativeHitCount());
+	}
+
+	@Test
+	public void testKeyAwareLoader() {
+		RedisLoadingCache<Item> cache = newBuilder().build(new CacheLoader<Item>() {
+			@Override
+			public Item load(String key) {
+				return new Item("loaded-" + key);
+			}
+		});
+
+		assertEquals("loaded-a", cache.get("a").getValue());
+		assertEquals("loaded-b", cache.get("b").getValue());
+	}
+
+	@Test
+	public void testAsyncLoaderDoesNotHoldRefreshThread() throws Exception {
+		final ListeningScheduledExecutorService backend = MoreExecutors.listeningDecorator(
+				Executors.newScheduledThreadPool(1));
+		RedisLoadingCache<Item> cache = newBuilder().refreshThreads(1).loadingTimeout(2, TimeUnit.SECONDS)
+				.build(new AsyncCacheLoader<Item>() {
+					@Override
+					public ListenableFuture<Item> loadAsync(final String key) {
+						return backend.schedule(new Callable<Item>() {
+							@Override
+							public Item call() {
+								return new Item("loaded-" + key);
+							}
+						}, 200, TimeUnit.MILLISECONDS);
+					}
+				});
+
+		// with one refresh thread, blocking loadings would take 200ms one after another.
+		List<ListenableFuture<Item>> futures = Lists.newArrayList();
+		long startTime = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			futures.add(cache.getAsync("key" + i));
+		}
+		for (int i = 0; i < 5; i++) {
+			assertEquals("loaded-key" + i, futures.get(i).get().getValue());
+		}
+		assertTrue(System.currentTimeMillis() - startTime < 600);
+
+		Thread.sleep(100);
+		assertNotNull(redis.getBytes("key4"));
+		backend.shutdown();
+	}
+
+	@Test
+	public void testInvalidationIsBroadcastToOtherNodes() throws Exception {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		CountingItemLoader loader = new CountingItemLoader();
+		RedisLoadingCache<Item> node1 = newBuilder().nearCache(100, 1, TimeUnit.MINUTES).invalidationBus(bus)
+				.build(loader);
+		RedisLoadingCache<Item> node2 = newBuilder().nearCache(100, 1, TimeUnit.MINUTES).invalidationBus(bus)
+				.build(loader);
+		assertEquals("loaded", node1.get("key").getValue());
+		assertEquals("loaded", node2.get("key").getValue());
+
+		node1.put("key", new Item("updated"));
+		assertEquals("updated", node1.get("key").getValue());
+		Thread.sleep(100);
+		assertEquals("updated", node2.get("key").getValue());
+
+		node2.invalidate("key");
+		assertFalse(redis.exists("key"));
+		Thread.sleep(100);
+		assertEquals("loaded", node1.get("key").getValue());
+		assertEquals(2, loader.loads.get());
+	}
+
+	@Test
+	public void testLoadingInFlightDoesNotOverwriteLaterPut() throws Exception {
+		final AtomicReference<String> backend = new AtomicReference<String>("old");
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch written = new CountDownLatch(1);
+		final RedisLoadingCache<Item> cache = newBuilder().build(new CacheLoader<Item>() {
+			@Override
+			public Item load(String key) {
+				String value = backend.get();
+				if (loading.getCount() > 0) {
+					loading.countDown();
+					Uninterruptibles.awaitUninterruptibly(written);
+				}
+				return new Item(value);
+			}
+		});
+		ExecutorService caller = Executors.newSingleThreadExecutor();
+		Future<Item> result = caller.submit(new Callable<Item>() {
+			@Override
+			public Item call() {
+				return cache.get("key");
+			}
+		});
+
+		// the value is updated while the old one is being loaded.
+		loading.await();
+		backend.set("new");
+		cache.put("key", new Item("new"));
+		written.countDown();
+		result.get();
+
+		assertEquals("new", cache.get("key").getValue());
+		caller.shutdown();
+	}
+
+	@Test
+	public void testLoadingInFlightDoesNotOverwriteInvalidation() throws Exception {
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch invalidated = new CountDownLatch(1);
+		final RedisLoadingCache<Item> cache = newBuilder().build(new CacheLoader<Item>() {
+			@Override
+			public Item load(String key) {
+				loading.countDown();
+				Uninterruptibles.awaitUninterruptibly(invalidated);
+				return new Item("old");
+			}
+		});
+		ExecutorService caller = Executors.newSingleThreadExecutor();
+		Future<Item> result = caller.submit(new Callable<Item>() {
+			@Override
+			public Item call() {
+				return cache.get("key");
+			}
+		});
+
+		loading.await();
+		cache.invalidate("key");
+		invalidated.countDown();
+		result.get();
+
+		assertFalse(redis.exists("key"));
+		caller.shutdown();
+	}
+
+	@Test
+	public void testClosedCacheUnsubscribesFromInvalidationBus() {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		RedisLoadingCache<Item> cache = newBuilder().invalidationBus(bus).build(new ItemLoader("loaded"));
+		assertEquals(1, bus.listeners("test:invalidation"));
+
+		cache.close();
+		assertEquals(0, bus.listeners("test:invalidation"));
+	}
+
+	@Test
+	public void testInvalidationsAreBatched() {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		RedisLoadingCache<Item> cache = newBuilder().invalidationBus(bus)
+				.invalidationBatching(1, TimeUnit.MINUTES, 30).build(new ItemLoader("loaded"));
+
+		for (int i = 0; i < 100; i++) {
+			cache.put("key" + i % 50, new Item("updated"));
+		}
+		assertTrue(bus.messages().isEmpty());
+
+		cache.close();
+		assertEquals(2, bus.messages().size());
+		assertEquals(30, bus.messages().get(0).getKeys().size());
+		assertEquals(20, bus.messages().get(1).getKeys().size());
+	}
+
+	private RedisLoadingCacheBuilder<Item> newBuilder() {
+		return RedisLoadingCacheBuilder.newBuilder(redis.newTemplate(), Item.class).name("test")
+				.expired(60, TimeUnit.SECONDS).refreshBeforeExpired(10, TimeUnit.SECONDS);
+	}
+
+	public static class Item extends CachedObject {
+
+		private String value;
+
+		public Item() {
+		}
+
+		public Item(String value) {
+			this.value = value;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public void setValue(String value) {
+			this.value = value;
+		}
+	}
+
+	private static class CountingItemLoader extends CacheLoader<Item> {
+
+		private final AtomicInteger loads = new AtomicInteger();
+
+		@Override
+		public Item load(String key) {
+			loads.incrementAndGet();
+			return new Item("loaded");
+		}
+	}
+
+	private static class ItemLoader extends CacheLoader<Item> {
+
+		private final String value;
+
+		ItemLoader(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public Item load(String key) {
+			return new Item(value);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.neway6655.parallel.executor;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class LatencyWindowTest {
+
+	@Test
+	public void testPercentile() {
+		LatencyWindow latencyWindow = new LatencyWindow();
+		assertEquals(0, latencyWindow.getPercentile(95));
+
+		for (int i = 1; i <= 100; i++) {
+			latencyWindow.record(i);
+		}
+		assertEquals(50, latencyWindow.getPercentile(50));
+		assertEquals(95, latencyWindow.getPercentile(95));
+		assertEquals(100, latencyWindow.getPercentile(100));
+	}
+
+	@Test
+	public void testPercentileFollowsRecentLatencies() {
+		LatencyWindow latencyWindow = new LatencyWindow();
+		for (int i = 0; i < 10000; i++) {
+			latencyWindow.record(1000);
+		}
+		assertEquals(1000, latencyWindow.getPercentile(95));
+
+		// a full window of faster latencies replaces the slow ones however many they were.
+		for (int i = 0; i < LatencyWindow.SIZE; i++) {
+			latencyWindow.record(10);
+		}
+		assertEquals(10, latencyWindow.getPercentile(95));
+	}
+}
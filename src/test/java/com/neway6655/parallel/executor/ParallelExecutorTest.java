@@ -1,15 +1,23 @@
 package com.neway6655.parallel.executor;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.neway6655.parallel.executor.task.ParallelTask;
 import org.junit.Test;
+import rx.Observable;
+import rx.functions.Func1;
 
 import java.security.SecureRandom;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
 
 public class ParallelExecutorTest {
 
@@ -38,6 +46,8 @@ public class ParallelExecutorTest {
 		List<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcess(simpleTask1, simpleTask2);
 
 		assertEquals(2, taskResults.size());
+		assertEquals(simpleTask1.getTaskId(), taskResults.get(0).getTaskId());
+		assertEquals(ParallelTask.TaskStatus.SUCCESS, taskResults.get(0).getStatus());
 		System.out.println(taskResults.get(0).getResult());
 		System.out.println(taskResults.get(1).getResult());
 	}
@@ -88,6 +98,334 @@ public class ParallelExecutorTest {
         assertEquals(0, taskResults.size());
     }
 
+	@Test
+	public void testParalleExecutorFailedFastByOneTaskError() {
+		ParallelTask<String> longTask = new ParallelTask<String>() {
+			@Override
+			protected String process() throws InterruptedException {
+				Thread.sleep(1000 * 60);
+				return "1";
+			}
+		};
+
+		ParallelTask<String> failedTask = new ParallelTask<String>() {
+			@Override
+			protected String process() throws InterruptedException {
+				throw new IllegalStateException("failed");
+			}
+		};
+
+		parallelExecutor = new ParallelExecutor(2, 5, TimeUnit.SECONDS);
+
+		long startTime = System.currentTimeMillis();
+		List<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcess(longTask, failedTask);
+
+		assertEquals(0, taskResults.size());
+		assertTrue(System.currentTimeMillis() - startTime < 1000);
+	}
+
+	@Test
+	public void testParalleExecutorReturnsPartialResults() {
+		ParallelTask<String> successTask = new ParallelTask<String>() {
+			@Override
+			protected String process() throws InterruptedException {
+				return "1";
+			}
+		};
+
+		ParallelTask<String> failedTask = new ParallelTask<String>() {
+			@Override
+			protected String process() throws InterruptedException {
+				throw new IllegalStateException("failed");
+			}
+		};
+
+		List<ParallelTask<String>> longTasks = Lists.newArrayList();
+		for (int i = 0; i < 3; i++) {
+			longTasks.add(new ParallelTask<String>() {
+				@Override
+				protected String process() throws InterruptedException {
+					Thread.sleep(1000 * 60);
+					return "long task";
+				}
+			});
+		}
+
+		parallelExecutor = new ParallelExecutor(2, 200, TimeUnit.MILLISECONDS);
+
+		List<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcessPartially(successTask,
+				failedTask, longTasks.get(0), longTasks.get(1), longTasks.get(2));
+
+		assertEquals(5, taskResults.size());
+
+		assertEquals(successTask.getTaskId(), taskResults.get(0).getTaskId());
+		assertEquals(ParallelTask.TaskStatus.SUCCESS, taskResults.get(0).getStatus());
+		assertEquals("1", taskResults.get(0).getResult());
+
+		assertEquals(failedTask.getTaskId(), taskResults.get(1).getTaskId());
+		assertEquals(ParallelTask.TaskStatus.FAILED, taskResults.get(1).getStatus());
+		assertTrue(taskResults.get(1).getError() instanceof IllegalStateException);
+
+		// the 2 threads are taken by the first 2 long tasks, the last one never starts.
+		assertEquals(ParallelTask.TaskStatus.TIMED_OUT, taskResults.get(2).getStatus());
+		assertTrue(taskResults.get(2).getElapsedTimeInMillSec() >= 150);
+		assertEquals(ParallelTask.TaskStatus.TIMED_OUT, taskResults.get(3).getStatus());
+		assertEquals(longTasks.get(2).getTaskId(), taskResults.get(4).getTaskId());
+		assertEquals(ParallelTask.TaskStatus.CANCELLED, taskResults.get(4).getStatus());
+		assertEquals(0, taskResults.get(4).getElapsedTimeInMillSec());
+	}
+
+	@Test
+	public void testRunningTasksCancelledWhenCallerInterrupted() {
+		final CountDownLatch taskStarted = new CountDownLatch(1);
+		ParallelTask<String> longTask = new ParallelTask<String>() {
+			@Override
+			protected String process() throws InterruptedException {
+				taskStarted.countDown();
+				Thread.sleep(1000 * 60);
+				return "long task";
+			}
+		};
+
+		final Thread caller = Thread.currentThread();
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Uninterruptibles.awaitUninterruptibly(taskStarted);
+				caller.interrupt();
+			}
+		}).start();
+
+		parallelExecutor = new ParallelExecutor(2, 10, TimeUnit.SECONDS);
+		List<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcessPartially(longTask);
+
+		assertTrue(Thread.interrupted());
+		assertEquals(ParallelTask.TaskStatus.CANCELLED, taskResults.get(0).getStatus());
+	}
+
+	@Test
+	public void testSlowTaskHedged() {
+		final AtomicInteger calls = new AtomicInteger();
+		ParallelTask<String> stragglerTask = new ParallelTask<String>() {
+			@Override
+			protected String process() throws InterruptedException {
+				if (calls.incrementAndGet() == 1) {
+					Thread.sleep(1000 * 60);
+				}
+				return "hedged";
+			}
+		};
+
+		parallelExecutor = new ParallelExecutor(2, 2, TimeUnit.SECONDS);
+		parallelExecutor.setHedgePolicy(new HedgePolicy(95, 50, TimeUnit.MILLISECONDS));
+
+		long startTime = System.currentTimeMillis();
+		List<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcess(stragglerTask);
+
+		assertTrue(System.currentTimeMillis() - startTime < 1000);
+		assertEquals(1, taskResults.size());
+		assertEquals("hedged", taskResults.get(0).getResult());
+		assertEquals(2, taskResults.get(0).getAttempts());
+	}
+
+	@Test
+	public void testFailedTaskRetried() {
+		final AtomicInteger calls = new AtomicInteger();
+		ParallelTask<String> flakyTask = new ParallelTask<String>() {
+			@Override
+			protected String process() throws InterruptedException {
+				if (calls.incrementAndGet() < 3) {
+					throw new IllegalStateException("flaky");
+				}
+				return "retried";
+			}
+		};
+
+		parallelExecutor = new ParallelExecutor(1, 1, TimeUnit.SECONDS);
+		parallelExecutor.setRetryPolicy(new RetryPolicy(3, 10, 100, TimeUnit.MILLISECONDS));
+
+		List<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcess(flakyTask);
+
+		assertEquals(1, taskResults.size());
+		assertEquals("retried", taskResults.get(0).getResult());
+		assertEquals(3, taskResults.get(0).getAttempts());
+	}
+
+	@Test
+	public void testRetryNotMadeAfterDeadline() {
+		final AtomicInteger calls = new AtomicInteger();
+		ParallelTask<String> failedTask = new ParallelTask<String>() {
+			@Override
+			protected String process() throws InterruptedException {
+				calls.incrementAndGet();
+				throw new IllegalStateException("failed");
+			}
+		};
+
+		parallelExecutor = new ParallelExecutor(1, 200, TimeUnit.MILLISECONDS);
+		parallelExecutor.setRetryPolicy(new RetryPolicy(3, 1, 1, TimeUnit.SECONDS));
+
+		long startTime = System.currentTimeMillis();
+		List<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcessPartially(failedTask);
+
+		assertTrue(System.currentTimeMillis() - startTime < 200);
+		assertEquals(ParallelTask.TaskStatus.FAILED, taskResults.get(0).getStatus());
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testBlockingTasksOnVirtualThreads() {
+		List<ParallelTask> taskList = Lists.newArrayList();
+		for (int i = 0; i < 200; i++) {
+			taskList.add(new ParallelTask<String>() {
+				@Override
+				protected String process() throws InterruptedException {
+					Thread.sleep(100);
+					return "finish";
+				}
+			});
+		}
+
+		// the platform threads used instead before java 21 are as many as the tasks.
+		parallelExecutor = ParallelExecutor.withVirtualThreads(200, 2, TimeUnit.SECONDS);
+
+		long startTime = System.currentTimeMillis();
+		List<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcess(taskList
+				.toArray(new ParallelTask[] {}));
+
+		// a thread per task, none of them queues behind the others.
+		assertTrue(System.currentTimeMillis() - startTime < 1000);
+		assertEquals(200, taskResults.size());
+	}
+
+	@Test
+	public void testDownstreamConcurrencyCapped() {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		List<ParallelTask> taskList = Lists.newArrayList();
+		for (int i = 0; i < 20; i++) {
+			taskList.add(new ParallelTask<String>("db") {
+				@Override
+				protected String process() throws InterruptedException {
+					int current = running.incrementAndGet();
+					int max = maxRunning.get();
+					while (current > max && !maxRunning.compareAndSet(max, current)) {
+						max = maxRunning.get();
+					}
+					Thread.sleep(10);
+					running.decrementAndGet();
+					return "finish";
+				}
+			});
+		}
+
+		parallelExecutor = ParallelExecutor.withVirtualThreads(20, 5, TimeUnit.SECONDS);
+		parallelExecutor.setDownstreamConcurrency("db", 3);
+
+		List<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcess(taskList
+				.toArray(new ParallelTask[] {}));
+
+		assertEquals(20, taskResults.size());
+		assertTrue(maxRunning.get() <= 3);
+	}
+
+	@Test
+	public void testResultsStreamedInCompletionOrder() {
+		ParallelTask<String> slowTask = new SleepingTask(300);
+		ParallelTask<String> fastTask = new SleepingTask(10);
+		ParallelTask<String> mediumTask = new SleepingTask(100);
+		ParallelTask<String> longTask = new SleepingTask(1000 * 60);
+
+		parallelExecutor = new ParallelExecutor(4, 1, TimeUnit.SECONDS);
+
+		Iterator<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcessStreaming(4, slowTask,
+				fastTask, mediumTask, longTask);
+
+		assertEquals(fastTask.getTaskId(), taskResults.next().getTaskId());
+		assertEquals(mediumTask.getTaskId(), taskResults.next().getTaskId());
+		assertEquals(slowTask.getTaskId(), taskResults.next().getTaskId());
+
+		ParallelTask.TaskResult<String> longTaskResult = taskResults.next();
+		assertEquals(longTask.getTaskId(), longTaskResult.getTaskId());
+		assertEquals(ParallelTask.TaskStatus.TIMED_OUT, longTaskResult.getStatus());
+		assertFalse(taskResults.hasNext());
+	}
+
+	@Test
+	public void testStreamingHoldsBackTasksUntilResultsConsumed() throws InterruptedException {
+		final AtomicInteger startedTasks = new AtomicInteger();
+		List<ParallelTask> taskList = Lists.newArrayList();
+		for (int i = 0; i < 5; i++) {
+			taskList.add(new ParallelTask<String>() {
+				@Override
+				protected String process() throws InterruptedException {
+					startedTasks.incrementAndGet();
+					return "finish";
+				}
+			});
+		}
+
+		parallelExecutor = new ParallelExecutor(5, 5, TimeUnit.SECONDS);
+
+		Iterator<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcessStreaming(2, taskList
+				.toArray(new ParallelTask[] {}));
+		Thread.sleep(100);
+		assertEquals(2, startedTasks.get());
+
+		taskResults.next();
+		Thread.sleep(100);
+		assertEquals(3, startedTasks.get());
+
+		int count = 1;
+		while (taskResults.hasNext()) {
+			assertEquals(ParallelTask.TaskStatus.SUCCESS, taskResults.next().getStatus());
+			count++;
+		}
+		assertEquals(5, count);
+	}
+
+	@Test
+	public void testNoTaskStartedAfterStreamCancelledAtDeadline() throws InterruptedException {
+		final AtomicInteger startedTasks = new AtomicInteger();
+		ParallelTask<String> nextTask = new ParallelTask<String>() {
+			@Override
+			protected String process() throws InterruptedException {
+				startedTasks.incrementAndGet();
+				return "finish";
+			}
+		};
+
+		parallelExecutor = new ParallelExecutor(2, 200, TimeUnit.MILLISECONDS);
+
+		Iterator<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcessStreaming(1,
+				new SleepingTask(1000), nextTask);
+		// the stream is cancelled at the deadline while its result is not consumed yet.
+		Thread.sleep(300);
+
+		assertEquals(ParallelTask.TaskStatus.TIMED_OUT, taskResults.next().getStatus());
+		Thread.sleep(100);
+		assertEquals(0, startedTasks.get());
+		assertEquals(ParallelTask.TaskStatus.CANCELLED, taskResults.next().getStatus());
+	}
+
+	@Test
+	public void testResultsObservable() {
+		parallelExecutor = new ParallelExecutor(2, 5, TimeUnit.SECONDS);
+
+		// the third task starts once the fastest one is consumed, and still finishes before the slowest one.
+		Observable<ParallelTask.TaskResult<String>> taskResults = parallelExecutor.parallelProcessObservable(2,
+				new SleepingTask(100), new SleepingTask(10), new SleepingTask(50));
+
+		List<String> results = taskResults.map(new Func1<ParallelTask.TaskResult<String>, String>() {
+			@Override
+			public String call(ParallelTask.TaskResult<String> taskResult) {
+				return taskResult.getResult();
+			}
+		}).toList().toBlocking().single();
+
+		assertEquals(Lists.newArrayList("slept 10", "slept 50", "slept 100"), results);
+	}
+
 	@Test
 	public void testParallelExecutorSuccessfullWithSomeLongTask() {
 		ParallelTask<String> simpleTask1 = new ParallelTask<String>() {
@@ -173,4 +511,19 @@ public class ParallelExecutorTest {
         assertEquals(1, taskResults.size());
         assertEquals("return immediately", taskResults.get(0).getResult());
     }
+
+	private static class SleepingTask extends ParallelTask<String> {
+
+		private final long sleepInMillSec;
+
+		SleepingTask(long sleepInMillSec) {
+			this.sleepInMillSec = sleepInMillSec;
+		}
+
+		@Override
+		protected String process() throws InterruptedException {
+			Thread.sleep(sleepInMillSec);
+			return "slept " + sleepInMillSec;
+		}
+	}
 }
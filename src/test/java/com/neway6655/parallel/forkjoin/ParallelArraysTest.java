@@ -0,0 +1,215 @@
+package com.neway6655.parallel.forkjoin;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class ParallelArraysTest {
+
+	// not a multiple of the sequential threshold, so that the last leaf and block are partial.
+	private static final int SIZE = 100003;
+
+	private static final int FROM = 1234;
+
+	private static final int TO = 98765;
+
+	private static ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+
+	private static ParallelArrays parallelArrays = new ParallelArrays(forkJoinPool);
+
+	private Random random = new Random(42);
+
+	@AfterClass
+	public static void shutdown() {
+		forkJoinPool.shutdown();
+	}
+
+	@Test
+	public void testMap() {
+		int[] ints = randomInts();
+		int[] mappedInts = new int[SIZE];
+		parallelArrays.map(ints, mappedInts, FROM, TO, new ParallelArrays.IntUnaryOperator() {
+			@Override
+			public int applyAsInt(int operand) {
+				return operand * 3 + 1;
+			}
+		});
+		for (int i = 0; i < SIZE; i++) {
+			assertEquals(i >= FROM && i < TO ? ints[i] * 3 + 1 : 0, mappedInts[i]);
+		}
+
+		long[] longs = randomLongs();
+		long[] expectedLongs = longs.clone();
+		for (int i = 0; i < SIZE; i++) {
+			expectedLongs[i] = -expectedLongs[i];
+		}
+		parallelArrays.map(longs, longs, new ParallelArrays.LongUnaryOperator() {
+			@Override
+			public long applyAsLong(long operand) {
+				return -operand;
+			}
+		});
+		assertTrue(Arrays.equals(expectedLongs, longs));
+
+		double[] doubles = randomDoubles();
+		double[] mappedDoubles = new double[SIZE];
+		parallelArrays.map(doubles, mappedDoubles, new ParallelArrays.DoubleUnaryOperator() {
+			@Override
+			public double applyAsDouble(double operand) {
+				return Math.sqrt(operand);
+			}
+		});
+		for (int i = 0; i < SIZE; i++) {
+			assertEquals(Math.sqrt(doubles[i]), mappedDoubles[i]);
+		}
+	}
+
+	@Test
+	public void testReduce() {
+		int[] ints = randomInts();
+		int intSum = 0;
+		int intMax = Integer.MIN_VALUE;
+		for (int i = FROM; i < TO; i++) {
+			intSum += ints[i];
+			intMax = Math.max(intMax, ints[i]);
+		}
+		assertEquals(intSum, parallelArrays.reduce(ints, FROM, TO, 0, new ParallelArrays.IntBinaryOperator() {
+			@Override
+			public int applyAsInt(int left, int right) {
+				return left + right;
+			}
+		}));
+		assertEquals(intMax, parallelArrays.reduce(ints, FROM, TO, Integer.MIN_VALUE,
+				new ParallelArrays.IntBinaryOperator() {
+					@Override
+					public int applyAsInt(int left, int right) {
+						return Math.max(left, right);
+					}
+				}));
+
+		long[] longs = randomLongs();
+		long longSum = 0;
+		for (long value : longs) {
+			longSum += value;
+		}
+		assertEquals(longSum, parallelArrays.reduce(longs, 0L, new ParallelArrays.LongBinaryOperator() {
+			@Override
+			public long applyAsLong(long left, long right) {
+				return left + right;
+			}
+		}));
+
+		double[] doubles = randomDoubles();
+		double doubleSum = 0;
+		for (double value : doubles) {
+			doubleSum += value;
+		}
+		assertEquals(doubleSum, parallelArrays.reduce(doubles, 0.0, new ParallelArrays.DoubleBinaryOperator() {
+			@Override
+			public double applyAsDouble(double left, double right) {
+				return left + right;
+			}
+		}), 1e-9 * doubleSum);
+
+		assertEquals(7L, parallelArrays.reduce(longs, 10, 10, 7L, new ParallelArrays.LongBinaryOperator() {
+			@Override
+			public long applyAsLong(long left, long right) {
+				return left + right;
+			}
+		}));
+	}
+
+	@Test
+	public void testPrefixSum() {
+		int[] ints = randomInts();
+		int[] expectedInts = ints.clone();
+		for (int i = FROM + 1; i < TO; i++) {
+			expectedInts[i] += expectedInts[i - 1];
+		}
+		parallelArrays.prefixSum(ints, FROM, TO);
+		assertTrue(Arrays.equals(expectedInts, ints));
+
+		long[] longs = randomLongs();
+		long[] expectedLongs = longs.clone();
+		for (int i = 1; i < SIZE; i++) {
+			expectedLongs[i] += expectedLongs[i - 1];
+		}
+		parallelArrays.prefixSum(longs);
+		assertTrue(Arrays.equals(expectedLongs, longs));
+
+		double[] doubles = randomDoubles();
+		double[] expectedDoubles = doubles.clone();
+		for (int i = 1; i < SIZE; i++) {
+			expectedDoubles[i] += expectedDoubles[i - 1];
+		}
+		parallelArrays.prefixSum(doubles);
+		for (int i = 0; i < SIZE; i++) {
+			assertEquals(expectedDoubles[i], doubles[i], 1e-9 * expectedDoubles[i]);
+		}
+	}
+
+	@Test
+	public void testHistogram() {
+		int[] ints = randomInts();
+		long[] expectedIntCounts = new long[10];
+		for (int i = FROM; i < TO; i++) {
+			if (ints[i] >= -500 && ints[i] < 500) {
+				expectedIntCounts[(ints[i] + 500) / 100]++;
+			}
+		}
+		assertTrue(Arrays.equals(expectedIntCounts, parallelArrays.histogram(ints, FROM, TO, -500, 500, 10)));
+
+		long[] longs = randomLongs();
+		long[] expectedLongCounts = new long[7];
+		for (long value : longs) {
+			if (value >= 0 && value < 700) {
+				expectedLongCounts[(int) (value / 100)]++;
+			}
+		}
+		assertTrue(Arrays.equals(expectedLongCounts, parallelArrays.histogram(longs, 0, 700, 7)));
+
+		double[] doubles = randomDoubles();
+		long[] expectedDoubleCounts = new long[4];
+		for (double value : doubles) {
+			if (value < 1.0) {
+				expectedDoubleCounts[(int) (value * 4)]++;
+			}
+		}
+		assertTrue(Arrays.equals(expectedDoubleCounts, parallelArrays.histogram(doubles, 0.0, 1.0, 4)));
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testSliceOutOfArray() {
+		parallelArrays.prefixSum(new long[10], 5, 11);
+	}
+
+	private int[] randomInts() {
+		int[] ints = new int[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			ints[i] = random.nextInt(2000) - 1000;
+		}
+		return ints;
+	}
+
+	private long[] randomLongs() {
+		long[] longs = new long[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			longs[i] = random.nextInt(1000);
+		}
+		return longs;
+	}
+
+	private double[] randomDoubles() {
+		double[] doubles = new double[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			doubles[i] = random.nextDouble();
+		}
+		return doubles;
+	}
+}
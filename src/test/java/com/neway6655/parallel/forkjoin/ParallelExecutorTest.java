@@ -1,12 +1,31 @@
 package com.neway6655.parallel.forkjoin;
 
 import com.google.common.collect.Lists;
+import com.neway6655.parallel.forkjoin.task.CancellationToken;
 import org.junit.Test;
+import rx.functions.Func2;
 
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 
 public class ParallelExecutorTest {
 
+    private static final Func2<Long, Long, Long> SUM = new Func2<Long, Long, Long>() {
+        @Override
+        public Long call(Long result1, Long result2) {
+            return result1 + result2;
+        }
+    };
+
     @Test
     public void testParallelExecutor(){
         Callable<String> task1 = new Callable<String>() {
@@ -25,7 +44,194 @@ public class ParallelExecutorTest {
 
         ParallelExecutor<String> parallelExecutor = new ParallelExecutor<String>();
 
-        parallelExecutor.parallelProcess(Lists.newArrayList(task1, task2));
+        assertNotNull(parallelExecutor.parallelProcess(Lists.newArrayList(task1, task2)));
+    }
+
+    @Test
+    public void testResultsCombined(){
+        List<Callable<Long>> taskList = Lists.newArrayList();
+        for (int i = 1; i <= 1000; i++) {
+            final long value = i;
+            taskList.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return value;
+                }
+            });
+        }
+
+        ParallelExecutor<Long> parallelExecutor = new ParallelExecutor<Long>();
+
+        assertEquals(Long.valueOf(500500), parallelExecutor.parallelProcess(taskList, 0L, SUM));
+        assertEquals(Long.valueOf(500500), parallelExecutor.parallelProcess(taskList, 0L, SUM, 1));
+        assertEquals(Long.valueOf(500500), parallelExecutor.parallelProcess(taskList, 0L, SUM, 1000));
+        assertEquals(Long.valueOf(0), parallelExecutor.parallelProcess(taskList.subList(0, 0), 0L, SUM, 10));
     }
 
+    @Test
+    public void testResultsCombinedInTaskOrder(){
+        List<Callable<String>> taskList = Lists.newArrayList();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            final String value = String.valueOf((char) ('a' + i % 26));
+            expected.append(value);
+            taskList.add(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return value;
+                }
+            });
+        }
+
+        Func2<String, String, String> concat = new Func2<String, String, String>() {
+            @Override
+            public String call(String result1, String result2) {
+                return result1 + result2;
+            }
+        };
+
+        ParallelExecutor<String> parallelExecutor = new ParallelExecutor<String>();
+
+        assertEquals(expected.toString(), parallelExecutor.parallelProcess(taskList, "", concat, 3));
+    }
+
+    @Test
+    public void testFailedTaskFailsProcess(){
+        List<Callable<Long>> taskList = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            final long value = i;
+            taskList.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    if (value == 42) {
+                        throw new IllegalStateException("failed");
+                    }
+                    return value;
+                }
+            });
+        }
+
+        ParallelExecutor<Long> parallelExecutor = new ParallelExecutor<Long>();
+
+        assertNull(parallelExecutor.parallelProcess(taskList, 0L, SUM, 10));
+    }
+
+    @Test
+    public void testTimedOutProcessCancelsSubtasks() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        List<Callable<Long>> taskList = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            taskList.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    calls.incrementAndGet();
+                    Thread.sleep(50);
+                    return 1L;
+                }
+            });
+        }
+
+        ParallelExecutor<Long> parallelExecutor = new ParallelExecutor<Long>(2);
+
+        long startTime = System.currentTimeMillis();
+        assertNull(parallelExecutor.parallelProcess(taskList, 0L, SUM, 1, 200, TimeUnit.MILLISECONDS,
+                new CancellationToken()));
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+
+        // only the tasks being called at the deadline may still finish, no other task is called.
+        int callsAtDeadline = calls.get();
+        Thread.sleep(300);
+        assertTrue(calls.get() <= callsAtDeadline + 2);
+        assertTrue(calls.get() < 20);
+
+        parallelExecutor.shutdown();
+    }
+
+    @Test
+    public void testFailedTaskCancelsOtherSubtasks() throws InterruptedException {
+        final CancellationToken cancellationToken = new CancellationToken();
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger cancelledCalls = new AtomicInteger();
+        List<Callable<Long>> taskList = Lists.newArrayList();
+        for (int i = 0; i < 39; i++) {
+            taskList.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    calls.incrementAndGet();
+                    for (int wait = 0; wait < 200; wait++) {
+                        if (cancellationToken.isCancelled()) {
+                            cancelledCalls.incrementAndGet();
+                            return 0L;
+                        }
+                        Thread.sleep(10);
+                    }
+                    return 1L;
+                }
+            });
+        }
+        // the last task is called in place by the root task, the other halves are forked.
+        taskList.add(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                Thread.sleep(50);
+                throw new IllegalStateException("failed");
+            }
+        });
+
+        ParallelExecutor<Long> parallelExecutor = new ParallelExecutor<Long>(4);
+
+        long startTime = System.currentTimeMillis();
+        assertNull(parallelExecutor.parallelProcess(taskList, 0L, SUM, 1, 5, TimeUnit.SECONDS, cancellationToken));
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+        assertTrue(cancellationToken.isCancelled());
+
+        // every task called sees the cancellation, and stops before its 2 seconds, no other task is called.
+        Thread.sleep(200);
+        assertTrue(calls.get() > 0);
+        assertEquals(calls.get(), cancelledCalls.get());
+        assertTrue(calls.get() < 39);
+
+        parallelExecutor.shutdown();
+    }
+
+    @Test
+    public void testProcessCancelledByCaller() {
+        final CancellationToken cancellationToken = new CancellationToken();
+        List<Callable<Long>> taskList = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            final long value = i;
+            taskList.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    if (value == 10) {
+                        cancellationToken.cancel();
+                    }
+                    return value;
+                }
+            });
+        }
+
+        ParallelExecutor<Long> parallelExecutor = new ParallelExecutor<Long>(1);
+
+        assertNull(parallelExecutor.parallelProcess(taskList, 0L, SUM, 1, 5, TimeUnit.SECONDS, cancellationToken));
+    }
+
+    @Test
+    public void testExternalPoolNotShutdown() throws InterruptedException {
+        ForkJoinPool forkJoinPool = new ForkJoinPool(2);
+        ParallelExecutor<Long> parallelExecutor = new ParallelExecutor<Long>(forkJoinPool, 1, TimeUnit.SECONDS);
+
+        List<Callable<Long>> taskList = Lists.newArrayList();
+        taskList.add(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return 1L;
+            }
+        });
+        assertEquals(Long.valueOf(1), parallelExecutor.parallelProcess(taskList, 0L, SUM));
+
+        parallelExecutor.shutdown();
+        assertFalse(forkJoinPool.isShutdown());
+        forkJoinPool.shutdown();
+    }
 }